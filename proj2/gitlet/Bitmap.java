@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** Represent a set of objects of a pack as one bit for each object in
+ *  the sorted order of the pack index, so unions and differences of
+ *  large object sets are a few word operations.
+ *  *********************** Layout ***************************
+ *  bitmap = number of words | run...
+ *  run    = clean words << 1 | bit of clean words | number of literals
+ *           | literal words
+ *  Words of all zeros or all ones are stored as a count only, like in
+ *  EWAH, so the sparse bitmaps of single commits stay small on disk.
+ *  In memory a bitmap is kept plain for fast operations.
+ *
+ *  @author Y. Y. Y
+ */
+class Bitmap {
+    /** Words of the bitmap, bit I is bit I % 64 of word I / 64. */
+    private final long[] words;
+
+    /** New an empty bitmap of SIZE bits. */
+    Bitmap(int size) {
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    /** New a bitmap of the given words. */
+    private Bitmap(long[] words) {
+        this.words = words;
+    }
+
+    /** Set bit I. */
+    void set(int i) {
+        this.words[i >>> 6] |= 1L << i;
+    }
+
+    /** Check if bit I is set. */
+    boolean get(int i) {
+        return (this.words[i >>> 6] & 1L << i) != 0;
+    }
+
+    /** Set the bits set in OTHER, a bitmap of the same size. */
+    void or(Bitmap other) {
+        for (int i = 0; i < this.words.length; i += 1) {
+            this.words[i] |= other.words[i];
+        }
+    }
+
+    /** Clear the bits set in OTHER, a bitmap of the same size. */
+    void andNot(Bitmap other) {
+        for (int i = 0; i < this.words.length; i += 1) {
+            this.words[i] &= ~other.words[i];
+        }
+    }
+
+    /** Return a copy of this bitmap. */
+    Bitmap copy() {
+        return new Bitmap(this.words.clone());
+    }
+
+    /** Return the number of set bits. */
+    int cardinality() {
+        int n = 0;
+        for (long w : this.words) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    /** Perform ACTION on each set bit in ascending order. */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < this.words.length; i += 1) {
+            for (long w = this.words[i]; w != 0; w &= w - 1) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(w));
+            }
+        }
+    }
+
+    /** Write this bitmap in the compressed layout to OUT. */
+    void encode(Codec.Output out) throws IOException {
+        out.writeVarint(this.words.length);
+        int i = 0;
+        while (i < this.words.length) {
+            long clean = this.words[i] == -1L ? -1L : 0L;
+            int run = 0;
+            while (i + run < this.words.length && this.words[i + run] == clean) {
+                run += 1;
+            }
+            int literals = 0;
+            while (i + run + literals < this.words.length
+                    && this.words[i + run + literals] != 0L
+                    && this.words[i + run + literals] != -1L) {
+                literals += 1;
+            }
+            out.writeVarint((long) run << 1 | (clean == 0 ? 0 : 1));
+            out.writeVarint(literals);
+            for (int k = i + run; k < i + run + literals; k += 1) {
+                out.writeLong(this.words[k]);
+            }
+            i += run + literals;
+        }
+    }
+
+    /** Read a bitmap written by encode from IN. */
+    static Bitmap decode(Codec.Input in) throws IOException {
+        long[] words = new long[Math.toIntExact(in.readVarint())];
+        int i = 0;
+        while (i < words.length) {
+            long marker = in.readVarint();
+            int run = Math.toIntExact(marker >>> 1);
+            int literals = Math.toIntExact(in.readVarint());
+            if (run == 0 && literals == 0 || i + run + literals > words.length) {
+                throw new IOException("malformed bitmap");
+            }
+            if ((marker & 1) != 0) {
+                Arrays.fill(words, i, i + run, -1L);
+            }
+            i += run;
+            for (int k = 0; k < literals; k += 1) {
+                words[i] = in.readLong();
+                i += 1;
+            }
+        }
+        return new Bitmap(words);
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Represent the reachability bitmaps of a pack, which hold for some
+ *  commits every object reachable from them, so the objects of a commit
+ *  are found without reading its history and trees.
+ *  *********************** Layout ***************************
+ *  pack-<sha1>.bitmap  "BITM" | version | count | entry...
+ *                      entry = raw SHA-1 of a commit | length | bitmap
+ *  Bits are positions in the sorted order of the pack index. A bitmap is
+ *  only written if every object reachable from its commit is in the
+ *  pack, and is decoded at its first use.
+ *
+ *  @author Y. Y. Y
+ */
+class BitmapIndex {
+    /** Magic header of a .bitmap file. */
+    private static final byte[] MAGIC = {'B', 'I', 'T', 'M'};
+    /** Version of the bitmap format. */
+    private static final int VERSION = 1;
+    /** Length of a raw SHA-1 value. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Content of the .bitmap file. */
+    private final byte[] content;
+    /** Offset of the encoded bitmap of each commit by its ID. */
+    private final Map<String, Integer> offsets = new HashMap<>();
+    /** Bitmaps decoded so far by commit ID. */
+    private final Map<String, Bitmap> decoded = new HashMap<>();
+
+    /** Load the bitmaps stored in FILE.
+     *  Throws IllegalArgumentException if FILE is malformed. */
+    BitmapIndex(File file) {
+        this.content = Utils.readContents(file);
+        try {
+            Codec.Input in = new Codec.Input(new ByteArrayInputStream(this.content));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("bad pack bitmaps " + file.getName());
+            }
+            int count = in.readInt();
+            int position = MAGIC.length + 8;
+            byte[] raw = new byte[RAW_LENGTH];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(raw);
+                int length = in.readInt();
+                position += RAW_LENGTH + 4;
+                this.offsets.put(Utils.toHex(raw), position);
+                in.skipNBytes(length);
+                position += length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of commits with a bitmap. */
+    int size() {
+        return this.offsets.size();
+    }
+
+    /** Return the bitmap of a commit, or null if it has none. The bitmap
+     *  is shared, copy it before changing it.
+     *
+     * @param id full-length uid of a commit
+     */
+    synchronized Bitmap get(String id) {
+        Bitmap b = this.decoded.get(id);
+        Integer offset = this.offsets.get(id);
+        if (b != null || offset == null) {
+            return b;
+        }
+        try {
+            b = Bitmap.decode(new Codec.Input(new ByteArrayInputStream(
+                    this.content, offset, this.content.length - offset)));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        this.decoded.put(id, b);
+        return b;
+    }
+
+    /** Write the bitmaps of commits into FILE, replacing it at once.
+     *
+     * @param file the .bitmap file of a pack
+     * @param bitmaps <commit uid, bitmap> pairs
+     */
+    static void write(File file, Map<String, Bitmap> bitmaps) {
+        File tmp = Utils.join(file.getParentFile(), "tmp-" + file.getName());
+        try {
+            try (Codec.Output out = new Codec.Output(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(bitmaps.size());
+                for (Map.Entry<String, Bitmap> p : bitmaps.entrySet()) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    Codec.Output body = new Codec.Output(bytes);
+                    p.getValue().encode(body);
+                    body.flush();
+                    out.write(Utils.fromHex(p.getKey()));
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
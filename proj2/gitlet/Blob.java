@@ -1,33 +1,64 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
 
 /** Represent a gitlet blob object.
  *  BLOB records the history of ONE file in current gitlet
  *  working directory by the file name.
  */
 public class Blob implements Serializable, Dumpable {
+    /** Pinned so blobs stored by earlier versions still deserialize. */
+    private static final long serialVersionUID = 1707452221562810617L;
     /** Tracked file of this blob. */
-    private final String file;
+    private String file;
     /** SHA-1 value of this blob. */
-    private final String id;
-    /** The file content of this blob. */
-    private final byte[] content;
+    private String id;
+    /** The file content of this blob, read when it is stored. */
+    private byte[] content;
+    /** SHA-1 values of the chunks of a large blob in order, or null if
+     *  the content is stored with the blob. */
+    private List<String> chunks;
+    /** Length of each chunk of a large blob. */
+    private List<Integer> chunkSizes;
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     // commits that link to this blob
     // private Set<String> links;
 
-    /** New blob object with a file
+    /** New blob object with a file whose SHA-1 value is known.
      *
      * @param filename a tracked file
+     * @param id SHA-1 value of the file content
      */
-    public Blob(String filename) {
+    public Blob(String filename, String id) {
         this.file = filename;
-        this.content = Utils.readContents(Utils.join(CWD, filename));
-        this.id = Utils.sha1(Utils.serialize(this));
+        this.id = id;
+    }
+
+    /** Return the SHA-1 value of the blob holding the content of a file.
+     *  Like git, only the content is hashed after a "blob <size>\0"
+     *  header, and the file is streamed instead of read into memory.
+     *
+     * @param f a working file
+     */
+    public static String hash(File f) {
+        return Utils.sha1("blob " + f.length() + "\0", f);
     }
 
     /** Return the SHA-1 value of this blob. */
@@ -42,31 +73,83 @@ public class Blob implements Serializable, Dumpable {
 
     /** Return the content of this blob as string. */
     public String getContent() {
-        return new String(this.content, StandardCharsets.UTF_8);
+        return new String(this.getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /** Check if the content of this blob is stored as chunks. */
+    public boolean isChunked() {
+        return this.chunks != null;
+    }
+
+    /** Return the SHA-1 values of the chunks of this blob in order. */
+    public List<String> getChunks() {
+        return this.chunks;
+    }
+
+    /** Store the content of this blob as the given chunks in order.
+     *
+     * @param ids SHA-1 values of the chunks
+     * @param sizes length of each chunk
+     */
+    public void setChunks(List<String> ids, List<Integer> sizes) {
+        this.chunks = ids;
+        this.chunkSizes = sizes;
+    }
+
+    /** Read the content of a chunked blob from its stored chunks.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param open the stream of the plain bytes of a stored object
+     */
+    public void loadChunks(Function<String, InputStream> open) {
+        long size = 0;
+        for (int n : this.chunkSizes) {
+            size += n;
+        }
+        byte[] bytes = new byte[Math.toIntExact(size)];
+        int position = 0;
+        try {
+            for (String chunk : this.chunks) {
+                try (InputStream stored = open.apply(chunk)) {
+                    if (stored == null) {
+                        throw new IllegalArgumentException("missing chunk " + chunk);
+                    }
+                    position += Chunker.read(stored, bytes, position);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        this.content = bytes;
     }
 
     /** Return the content of this blob as a byte array. */
     public byte[] getBytes() {
+        if (this.content == null && this.chunks != null) {
+            throw new IllegalArgumentException("chunks of blob " + this.id + " not loaded");
+        } else if (this.content == null) {
+            this.content = Utils.readContents(Utils.join(CWD, this.file));
+        }
         return this.content;
     }
 
-    /** Compose a very verbose log of this blob
+    /** Write a very verbose log of this blob
      *
-     * @return a string contains useful info about this blob
+     * @param out the writer of useful info about this blob
      */
-    public String log() {
+    public void log(PrintWriter out) {
         // header of a blob object
-        String log = "blob ";
+        out.print("blob ");
         // add ID
-        log += this.id + "\n";
+        out.print(this.id + "\n");
         // add content
-        log += "------\n" + this.getContent();
-        return log;
+        out.print("------\n");
+        out.print(this.getContent());
     }
 
-    /** Store this blob and generate its SHA-1 value. */
+    /** Store this blob with the current content of its file. */
     public void store(File storePath) {
-        Utils.writeObject(Utils.join(storePath, this.id), this);
+        Utils.writeCompressedObject(Utils.join(storePath, this.id), this);
     }
 
     /** Load a blob object by its ID and return it for assignment.
@@ -82,4 +165,192 @@ public class Blob implements Serializable, Dumpable {
     public void dump() {
         System.out.println(this.log());
     }
+
+    /** Write this blob in the binary format.  The content of a blob
+     *  made from a working file is streamed from the file, a chunked
+     *  blob only lists its chunks. */
+    public void encode(Codec.Output out) throws IOException {
+        if (this.chunks != null) {
+            out.writeByte(Codec.BLOB_MANIFEST);
+            out.writeId(this.id);
+            out.writeString(this.file);
+            out.writeVarint(this.chunks.size());
+            for (int i = 0; i < this.chunks.size(); i += 1) {
+                out.writeId(this.chunks.get(i));
+                out.writeVarint(this.chunkSizes.get(i));
+            }
+            return;
+        }
+        out.writeByte(Codec.BLOB);
+        out.writeId(this.id);
+        out.writeString(this.file);
+        if (this.content != null) {
+            out.writeVarint(this.content.length);
+            out.write(this.content);
+            return;
+        }
+        File f = Utils.join(CWD, this.file);
+        long size = f.length();
+        out.writeVarint(size);
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            byte[] buf = new byte[Utils.BUFFER_SIZE];
+            while (size > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, size));
+                if (n < 0) {
+                    throw new IOException(this.file + " is truncated while stored");
+                }
+                out.write(buf, 0, n);
+                size -= n;
+            }
+        }
+    }
+
+    /** Write the content of a stored blob to a file. The content is
+     *  moved from STORED to the file channel a buffer at a time, so
+     *  checking out a large file never holds it in memory. A blob stored
+     *  by java serialization is read whole.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param stored the plain bytes of a stored blob
+     * @param f the file to write
+     * @param open the stream of the plain bytes of a stored chunk
+     */
+    static void writeContent(InputStream stored, File f,
+                             Function<String, InputStream> open) {
+        try (FileChannel out = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            InputStream plain = new BufferedInputStream(stored, Utils.BUFFER_SIZE);
+            if (!Codec.isEncoded(plain)) {
+                byte[] legacy = Utils.deserialize(plain.readAllBytes(), Blob.class).getBytes();
+                out.write(ByteBuffer.wrap(legacy));
+                return;
+            }
+            Codec.Input in = new Codec.Input(plain);
+            int type = Codec.readHeader(in);
+            if (type == Codec.BLOB_MANIFEST) {
+                long position = 0;
+                for (String chunk : decodeManifest(in).chunks) {
+                    try (InputStream content = open.apply(chunk)) {
+                        if (content == null) {
+                            throw new IllegalArgumentException("missing chunk " + chunk);
+                        }
+                        position += Chunker.copy(content, out, position);
+                    }
+                }
+                return;
+            } else if (type != Codec.BLOB) {
+                throw new IllegalArgumentException("not a blob of type " + type);
+            }
+            in.readId();
+            in.readString();
+            long size = in.readVarint();
+            ReadableByteChannel content = Channels.newChannel(in);
+            for (long n = 0; n < size; ) {
+                long copied = out.transferFrom(content, n, size - n);
+                if (copied <= 0) {
+                    throw new IOException("truncated blob of " + f.getName());
+                }
+                n += copied;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the content of a blob stored by java serialization, as
+     *  gitlet did before blob IDs hashed only the content, or null if the
+     *  blob is stored in the binary format.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param stored the plain bytes of a stored blob
+     */
+    static byte[] legacyContent(InputStream stored) {
+        try {
+            InputStream plain = new BufferedInputStream(stored, Utils.BUFFER_SIZE);
+            if (Codec.isEncoded(plain)) {
+                return null;
+            }
+            return Utils.deserialize(plain.readAllBytes(), Blob.class).getBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the first N bytes of the content of the blob read from
+     *  STORED, fewer if it is shorter, or null if its content is stored
+     *  as chunks. Only those bytes are read, except of a legacy blob.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param stored the plain bytes of a stored blob
+     * @param n the number of bytes wanted
+     */
+    static byte[] prefix(InputStream stored, int n) {
+        try {
+            InputStream plain = new BufferedInputStream(stored, Utils.BUFFER_SIZE);
+            if (!Codec.isEncoded(plain)) {
+                byte[] legacy = Utils.deserialize(plain.readAllBytes(), Blob.class).getBytes();
+                return Arrays.copyOf(legacy, Math.min(n, legacy.length));
+            }
+            Codec.Input in = new Codec.Input(plain);
+            int type = Codec.readHeader(in);
+            if (type == Codec.BLOB_MANIFEST) {
+                return null;
+            } else if (type != Codec.BLOB) {
+                throw new IllegalArgumentException("not a blob of type " + type);
+            }
+            in.readId();
+            in.readString();
+            byte[] head = new byte[(int) Math.min(n, in.readVarint())];
+            in.readFully(head);
+            return head;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the SHA-1 values of the chunks of the blob read from
+     *  STORED, empty if its content is stored with it.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param stored the plain bytes of a stored blob
+     */
+    static List<String> chunkIDs(InputStream stored) {
+        try {
+            InputStream plain = new BufferedInputStream(stored, Utils.BUFFER_SIZE);
+            if (!Codec.isEncoded(plain)) {
+                return List.of();
+            }
+            Codec.Input in = new Codec.Input(plain);
+            if (Codec.readHeader(in) != Codec.BLOB_MANIFEST) {
+                return List.of();
+            }
+            return decodeManifest(in).chunks;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Read a chunked blob written by encode(), without its content. */
+    static Blob decodeManifest(Codec.Input in) throws IOException {
+        String id = in.readId();
+        Blob b = new Blob(in.readString(), id);
+        int count = Math.toIntExact(in.readVarint());
+        List<String> ids = new ArrayList<>(count);
+        List<Integer> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(in.readId());
+            sizes.add(Math.toIntExact(in.readVarint()));
+        }
+        b.setChunks(ids, sizes);
+        return b;
+    }
+
+    /** Read a blob written by encode(). */
+    static Blob decode(Codec.Input in) throws IOException {
+        String id = in.readId();
+        Blob b = new Blob(in.readString(), id);
+        b.content = new byte[Math.toIntExact(in.readVarint())];
+        in.readFully(b.content);
+        return b;
+    }
 }
@@ -1,6 +1,10 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -8,14 +12,24 @@ import java.util.TreeMap;
  *  All tree nodes of a blob tree are blobs only.
  *  It is used to representing staging area or tracked files
  *  of a commit object.
+ *  A large tree is stored as a root of subtrees, each holding the files
+ *  of one bucket by a hash of their names. Since trees are named by
+ *  their content, a commit changing a few files only stores the root
+ *  and the subtrees of those files, and the others are shared.
  *
  *  @author Y. Y. Y
  */
 public class BlobTree implements Tree {
+    /** Pinned so stored trees of earlier versions stay readable. */
+    private static final long serialVersionUID = -8008353993212964757L;
     /** Mapping blobs in <Key filename, Value SHA-1 value> pairs. */
     private TreeMap<String, String> mapping = new TreeMap<>();
     /** SHA-1 value for this blob tree. */
     private String id;
+    /** Subtrees in <Key bucket, Value SHA-1 value> pairs, null if flat. */
+    private TreeMap<String, String> subtrees;
+    /** Trees with at least this many files are split into subtrees. */
+    static final int SPLIT_THRESHOLD = 256;
 
     /** New a blob tree object
      *
@@ -43,17 +57,32 @@ public class BlobTree implements Tree {
             merged.put(p.getKey(), "deleted");
         }
         this.mapping = merged;
+        this.subtrees = null;
     }
 
+    /** Merge the blob tree of another commit, files in this tree win.
+     *
+     * @param other a blob tree, which is not changed
+     */
     public void merge(BlobTree other) {
-        TreeMap<String, String> merged = other.getMapping();
+        TreeMap<String, String> merged = new TreeMap<>(other.getMapping());
         merged.putAll(this.mapping);
         this.mapping = merged;
+        this.subtrees = null;
+    }
+
+    /** Return a copy of this tree that can be changed independently. */
+    public BlobTree copy() {
+        BlobTree t = new BlobTree();
+        t.mapping = new TreeMap<>(this.mapping);
+        t.id = this.id;
+        return t;
     }
 
     /** Empty this blob tree. */
     public void empty() {
         this.mapping = new TreeMap<>();
+        this.subtrees = null;
         this.id = "";
     }
 
@@ -76,33 +105,91 @@ public class BlobTree implements Tree {
         return this.mapping;
     }
 
+    /** Return the subtrees of this tree, null if it is flat. */
+    public TreeMap<String, String> getSubtrees() {
+        return this.subtrees;
+    }
+
+    /** Check if this is a root whose subtrees are not loaded yet. */
+    public boolean isUnexpanded() {
+        return this.subtrees != null && this.mapping.isEmpty();
+    }
+
+    /** Load files of a subtree into this root. */
+    public void expand(BlobTree subtree) {
+        this.mapping.putAll(subtree.getMapping());
+    }
+
+    /** Return the bucket of a file, which picks its subtree. */
+    static String bucketOf(String filename) {
+        // String.hashCode is fixed by the language, so buckets are stable
+        int h = (filename.hashCode() * 0x9e3779b9) >>> 24;
+        return "%02x".formatted(h);
+    }
+
+    /** Split a large tree into subtrees by buckets and compute their
+     *  SHA-1 values, a small tree stays flat.
+     *
+     * @return the subtrees to store, empty if this tree is flat
+     */
+    public List<BlobTree> split() {
+        List<BlobTree> result = new ArrayList<>();
+        this.subtrees = null;
+        if (this.mapping.size() < SPLIT_THRESHOLD) {
+            return result;
+        }
+        TreeMap<String, BlobTree> buckets = new TreeMap<>();
+        for (Map.Entry<String, String> p : this.mapping.entrySet()) {
+            buckets.computeIfAbsent(bucketOf(p.getKey()), k -> new BlobTree())
+                    .mapping.put(p.getKey(), p.getValue());
+        }
+        this.subtrees = new TreeMap<>();
+        for (Map.Entry<String, BlobTree> p : buckets.entrySet()) {
+            p.getValue().hash();
+            this.subtrees.put(p.getKey(), p.getValue().getID());
+            result.add(p.getValue());
+        }
+        return result;
+    }
+
+    /** Compute the SHA-1 value of this tree, which depends on its
+     *  files only, or on its subtrees if it is split. */
+    public void hash() {
+        this.id = null;
+        this.id = Utils.sha1(Codec.encode(this));
+    }
+
     /** Return the SHA-1 value of the target file. */
     public String getBlobID(String filename) {
         return this.mapping.get(filename);
     }
 
-    /** Compose a verbose and tree-structure version of log on this tree
+    /** Write a verbose and tree-structure version of log on this tree
      *
-     *  @return a string represent the content and structure on this tree
+     *  @param out the writer of the content and structure on this tree
      */
-    public String log() {
+    public void log(PrintWriter out) {
         // header of a tree object
-        String log = "tree ";
+        out.print("tree ");
         // add ID
-        log += this.id + "\n";
-        if (this.mapping != null) {
+        out.print(this.id + "\n");
+        if (this.subtrees != null) {
+            // add one line log for all subtrees
+            for (Map.Entry<String, String> p : this.subtrees.entrySet()) {
+                out.print("+\t" + p.getValue() + "\t" + p.getKey() + "\n");
+            }
+        } else if (this.mapping != null) {
             // add one line log for all dumpables in this tree
             for (Map.Entry<String, String> p : this.mapping.entrySet()) {
-                log += "*\t" + p.getValue() + "\t" + p.getKey() + "\n";
+                out.print("*\t" + p.getValue() + "\t" + p.getKey() + "\n");
             }
         }
-        return log;
     }
 
     /** Store this tree and generate its SHA-1 value. */
     public void store(File storePath) {
-        this.id = Utils.sha1(Utils.serialize(this));
-        Utils.writeObject(Utils.join(storePath, this.id), this);
+        this.hash();
+        Utils.writeCompressedObject(Utils.join(storePath, this.id), this);
     }
 
     /** Load a tree object by its ID and return it for assignment.
@@ -118,4 +205,47 @@ public class BlobTree implements Tree {
     public void dump() {
         System.out.println(this.log());
     }
+
+    /** Write this tree in the binary format, a split tree as its
+     *  subtrees only. */
+    public void encode(Codec.Output out) throws IOException {
+        out.writeByte(this.subtrees == null ? Codec.BLOB_TREE : Codec.TREE_ROOT);
+        out.writeId(this.id);
+        encodeMapping(out, this.subtrees == null ? this.mapping : this.subtrees);
+    }
+
+    /** Read a flat tree written by encode(). */
+    static BlobTree decode(Codec.Input in) throws IOException {
+        BlobTree t = new BlobTree();
+        t.id = in.readId();
+        decodeMapping(in, t.mapping);
+        return t;
+    }
+
+    /** Read a split tree written by encode(), without its files. */
+    static BlobTree decodeRoot(Codec.Input in) throws IOException {
+        BlobTree t = new BlobTree();
+        t.id = in.readId();
+        t.subtrees = new TreeMap<>();
+        decodeMapping(in, t.subtrees);
+        return t;
+    }
+
+    /** Write <filename, SHA-1 value> pairs of MAPPING in the binary format. */
+    static void encodeMapping(Codec.Output out, Map<String, String> mapping)
+            throws IOException {
+        out.writeVarint(mapping.size());
+        for (Map.Entry<String, String> p : mapping.entrySet()) {
+            out.writeString(p.getKey());
+            out.writeId(p.getValue());
+        }
+    }
+
+    /** Read pairs written by encodeMapping() into MAPPING. */
+    static void decodeMapping(Codec.Input in, Map<String, String> mapping)
+            throws IOException {
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            mapping.put(in.readString(), in.readId());
+        }
+    }
 }
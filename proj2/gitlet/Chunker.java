@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+/** Split the content of a large file into chunks at boundaries chosen
+ *  by the content itself, so an edit only changes the chunks around it
+ *  and versions of a large file share their other chunks. Boundaries
+ *  are found with FastCDC: a gear hash rolls over the bytes, and a chunk
+ *  ends where the hash has zeros under a mask, a stricter mask before
+ *  the average size and a looser one after it. Only one chunk of the
+ *  file is held in memory at a time.
+ *  *********************** Layout ***************************
+ *  chunk = "GLT" | version | 'k' | length | bytes
+ *  A chunk is stored as a deflated object named by the SHA-1 value of
+ *  "chunk <length>\0" and its bytes.
+ *
+ *  @author Y. Y. Y
+ */
+class Chunker {
+    /** Files at least this large are stored as chunks. */
+    static final long THRESHOLD = 1 << 20;
+    /** No boundary is taken before this many bytes of a chunk. */
+    static final int MIN_SIZE = 16 << 10;
+    /** The size chunks are normalized around. */
+    static final int AVERAGE_SIZE = 64 << 10;
+    /** A chunk ends after this many bytes at most. */
+    static final int MAX_SIZE = 256 << 10;
+    /** Mask of the hash before the average size, with two bits more than
+     *  the log of the average size. High bits of the gear hash depend on
+     *  the last 64 bytes, low bits only on the last few. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask of the hash after the average size, with two bits less. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** Random value of each byte for the gear hash, fixed so boundaries
+     *  are the same in every repository. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x676974_6c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The content being split. */
+    private final InputStream in;
+    /** Bytes read but not yet returned, from the start of the buffer. */
+    private final byte[] buffer = new byte[MAX_SIZE];
+    /** Number of bytes in the buffer. */
+    private int length;
+    /** Length of the chunk returned last, dropped at the next call. */
+    private int last;
+    /** If the content has been read to the end. */
+    private boolean eof;
+
+    /** New a chunker over the content read from IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Return the length of the next chunk, which starts at the beginning
+     *  of getBuffer(), or 0 at the end of the content. */
+    int next() throws IOException {
+        System.arraycopy(this.buffer, this.last, this.buffer, 0, this.length - this.last);
+        this.length -= this.last;
+        while (!this.eof && this.length < MAX_SIZE) {
+            int n = this.in.read(this.buffer, this.length, MAX_SIZE - this.length);
+            if (n < 0) {
+                this.eof = true;
+            } else {
+                this.length += n;
+            }
+        }
+        this.last = cut(this.buffer, this.length);
+        return this.last;
+    }
+
+    /** Return the buffer holding the chunk returned by next(). */
+    byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    /** Return the length of the first chunk of the first N bytes of BUF. */
+    static int cut(byte[] buf, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        long hash = 0;
+        int normal = Math.min(n, AVERAGE_SIZE);
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the SHA-1 value of a chunk of the first N bytes of BUF. */
+    static String chunkID(byte[] buf, int n) {
+        byte[] bytes = buf.length == n ? buf : Arrays.copyOf(buf, n);
+        return Utils.sha1("chunk " + n + "\0", bytes);
+    }
+
+    /** Store a chunk of the first N bytes of BUF in DIR by its ID. It is
+     *  written to a temporary file first, so threads storing the same
+     *  chunk never leave a partial object.
+     *  Throws IllegalArgumentException in case of problems.
+     */
+    static void store(File dir, String id, byte[] buf, int n) {
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), "tmp-", "").toFile();
+            try (OutputStream stream = new DeflaterOutputStream(Files.newOutputStream(tmp.toPath()))) {
+                Codec.Output out = new Codec.Output(stream);
+                Codec.writeHeader(out, Codec.CHUNK);
+                out.writeVarint(n);
+                out.write(buf, 0, n);
+                out.flush();
+            }
+            Files.move(tmp.toPath(), Utils.join(dir, id).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the length of the chunk read from STORED, leaving STORED
+     *  at its first byte. STORED holds the plain bytes of a stored chunk. */
+    static long readHeader(Codec.Input stored) throws IOException {
+        int type = Codec.readHeader(stored);
+        if (type != Codec.CHUNK) {
+            throw new IOException("not a chunk of type " + type);
+        }
+        return stored.readVarint();
+    }
+
+    /** Write the bytes of the chunk read from STORED to OUT at POSITION.
+     *
+     * @return the length of the chunk
+     */
+    static long copy(InputStream stored, FileChannel out, long position) throws IOException {
+        Codec.Input in = new Codec.Input(stored);
+        long size = readHeader(in);
+        ReadableByteChannel content = Channels.newChannel(in);
+        for (long n = 0; n < size; ) {
+            long copied = out.transferFrom(content, position + n, size - n);
+            if (copied <= 0) {
+                throw new IOException("truncated chunk");
+            }
+            n += copied;
+        }
+        return size;
+    }
+
+    /** Read the bytes of the chunk read from STORED into DEST at OFFSET.
+     *
+     * @return the length of the chunk
+     */
+    static int read(InputStream stored, byte[] dest, int offset) throws IOException {
+        Codec.Input in = new Codec.Input(stored);
+        int size = Math.toIntExact(readHeader(in));
+        in.readFully(dest, offset, size);
+        return size;
+    }
+}
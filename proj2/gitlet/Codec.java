@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** The compact binary format of stored gitlet objects, which replaces
+ *  java serialization for commits, blobs and trees.
+ *  *********************** Layout ***************************
+ *  "GLT" | version | type | body
+ *  The body is written by each class in its encode() method with
+ *  varints, length-prefixed UTF-8 strings and raw 20-byte SHA-1 values.
+ *
+ *  @author Y. Y. Y
+ */
+class Codec {
+    /** Magic header of an encoded object, distinct from the zlib and
+     *  java serialization headers. */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+    /** Version of the binary format. */
+    static final int VERSION = 1;
+
+    /** Type of an encoded Commit. */
+    static final int COMMIT = 'c';
+    /** Type of an encoded Blob. */
+    static final int BLOB = 'b';
+    /** Type of an encoded BlobTree. */
+    static final int BLOB_TREE = 't';
+    /** Type of an encoded BlobTree split into subtrees. */
+    static final int TREE_ROOT = 'r';
+    /** Type of an encoded Stage. */
+    static final int STAGE = 's';
+    /** Type of an encoded CommitTree. */
+    static final int COMMIT_TREE = 'g';
+    /** Type of an encoded Blob stored as a list of chunks. */
+    static final int BLOB_MANIFEST = 'm';
+    /** Type of a chunk of a large blob, see Chunker. */
+    static final int CHUNK = 'k';
+
+    /** Tag of a null SHA-1 value. */
+    private static final int ID_NULL = 0;
+    /** Tag of a full-length SHA-1 value stored as 20 raw bytes. */
+    private static final int ID_RAW = 1;
+    /** Tag of any other value, like "" or "deleted", stored as a string. */
+    private static final int ID_STRING = 2;
+
+    /** Return the encoded bytes of OBJ. */
+    static byte[] encode(Dumpable obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new Output(bytes), obj);
+        return bytes.toByteArray();
+    }
+
+    /** Write the encoded OBJ to STREAM and flush it.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void write(OutputStream stream, Dumpable obj) {
+        write(new Output(new BufferedOutputStream(stream, Utils.BUFFER_SIZE)), obj);
+    }
+
+    /** Write the encoded OBJ to OUT and flush it. */
+    private static void write(Output out, Dumpable obj) {
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            obj.encode(out);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Check if an encoded object starts at the current position of IN.
+     *  IN must support mark. */
+    static boolean isEncoded(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        boolean result = true;
+        for (byte b : MAGIC) {
+            result &= in.read() == b;
+        }
+        in.reset();
+        return result;
+    }
+
+    /** Return the type of the object encoded in BYTES, or -1 if BYTES
+     *  do not hold an encoded object. */
+    static int typeOf(byte[] bytes) {
+        if (bytes.length <= MAGIC.length + 1) {
+            return -1;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (bytes[i] != MAGIC[i]) {
+                return -1;
+            }
+        }
+        return bytes[MAGIC.length + 1] & 0xff;
+    }
+
+    /** Read an encoded object from STREAM.
+     *  Throws IllegalArgumentException in case of problems. */
+    static Dumpable read(InputStream stream) {
+        try {
+            Input in = new Input(stream);
+            int type = readHeader(in);
+            return switch (type) {
+                case COMMIT -> Commit.decode(in);
+                case BLOB -> Blob.decode(in);
+                case BLOB_MANIFEST -> Blob.decodeManifest(in);
+                case BLOB_TREE -> BlobTree.decode(in);
+                case TREE_ROOT -> BlobTree.decodeRoot(in);
+                case STAGE -> Stage.decode(in);
+                case COMMIT_TREE -> CommitTree.decode(in);
+                default -> throw new IllegalArgumentException("unknown object type " + type);
+            };
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the header of an encoded object of TYPE to OUT, for objects
+     *  which are not Dumpable. */
+    static void writeHeader(Output out, int type) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    /** Read the header of an encoded object from IN and return its type.
+     *  Throws IllegalArgumentException if the version is not supported. */
+    static int readHeader(Input in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported object version " + version);
+        }
+        return in.readUnsignedByte();
+    }
+
+    /** A stream writing the primitives of the binary format. */
+    static class Output extends DataOutputStream {
+        /** New an output over STREAM. */
+        Output(OutputStream stream) {
+            super(stream);
+        }
+
+        /** Write a non-negative V in 7-bit groups, least significant first. */
+        void writeVarint(long v) throws IOException {
+            while ((v & ~0x7fL) != 0) {
+                writeByte((int) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+
+        /** Write S as a length-prefixed UTF-8 string, null allowed. */
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            write(bytes);
+        }
+
+        /** Write a SHA-1 value, as raw bytes if it is full-length. */
+        void writeId(String id) throws IOException {
+            if (id == null) {
+                writeByte(ID_NULL);
+            } else if (isFullId(id)) {
+                writeByte(ID_RAW);
+                write(Utils.fromHex(id));
+            } else {
+                writeByte(ID_STRING);
+                writeString(id);
+            }
+        }
+
+        /** Check if ID is a full-length lowercase hexadecimal SHA-1 value. */
+        private static boolean isFullId(String id) {
+            if (id.length() != Utils.UID_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < id.length(); i += 1) {
+                char c = id.charAt(i);
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** A stream reading the primitives of the binary format. */
+    static class Input extends DataInputStream {
+        /** New an input over STREAM. */
+        Input(InputStream stream) {
+            super(stream);
+        }
+
+        /** Read a varint written by Output.writeVarint. */
+        long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readUnsignedByte();
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        /** Read a string written by Output.writeString. */
+        String readString() throws IOException {
+            long n = readVarint();
+            if (n == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[Math.toIntExact(n - 1)];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Read a SHA-1 value written by Output.writeId. */
+        String readId() throws IOException {
+            int tag = read();
+            switch (tag) {
+                case ID_NULL:
+                    return null;
+                case ID_RAW:
+                    byte[] raw = new byte[Utils.UID_LENGTH / 2];
+                    readFully(raw);
+                    return Utils.toHex(raw);
+                case ID_STRING:
+                    return readString();
+                case -1:
+                    throw new EOFException();
+                default:
+                    throw new IOException("malformed id tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+
+/** Performs a timing test on the two ways to store gitlet objects:
+ *  java serialization and the binary format of Codec.
+ *  Usage: java gitlet.CodecSpeedTest [number of files in the tree]
+ *
+ *  @author Y. Y. Y
+ */
+public class CodecSpeedTest {
+    /** Rounds run before timing, to let the JIT compile both paths. */
+    private static final int WARM_UP = 200;
+    /** Rounds timed for each test. */
+    private static final int ROUNDS = 1000;
+
+    /** Times writing and reading a commit, a blob tree and a commit tree
+     *  in both formats. ARGS may hold the number of tracked files. */
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Commit commit = new Commit(new Date(), "a commit message", randomId(), randomId());
+        BlobTree tree = new BlobTree();
+        CommitTree history = new CommitTree();
+        for (int i = 0; i < n; i += 1) {
+            tree.getMapping().put("file" + i + ".txt", randomId());
+            history.getMapping().put(randomId(), "commit message " + i);
+        }
+        System.out.printf("%-12s %8s %14s %14s %14s%n",
+                "object", "format", "bytes", "write ops/s", "read ops/s");
+        timeObject("commit", commit);
+        timeObject("tree", tree);
+        timeObject("history", history);
+    }
+
+    /** Print the size and throughput of OBJ in both formats. */
+    private static void timeObject(String name, Dumpable obj)
+            throws IOException, ClassNotFoundException {
+        byte[] serialized = serialize(obj);
+        byte[] encoded = Codec.encode(obj);
+        for (int i = 0; i < WARM_UP; i += 1) {
+            deserialize(serialize(obj));
+            Codec.read(new ByteArrayInputStream(Codec.encode(obj)));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            serialize(obj);
+        }
+        double write = opsPerSecond(start);
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            deserialize(serialized);
+        }
+        double read = opsPerSecond(start);
+        System.out.printf("%-12s %8s %14d %14.0f %14.0f%n",
+                name, "java", serialized.length, write, read);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            Codec.encode(obj);
+        }
+        write = opsPerSecond(start);
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            Codec.read(new ByteArrayInputStream(encoded));
+        }
+        read = opsPerSecond(start);
+        System.out.printf("%-12s %8s %14d %14.0f %14.0f%n",
+                name, "codec", encoded.length, write, read);
+    }
+
+    /** Return the java serialized bytes of OBJ. */
+    private static byte[] serialize(Dumpable obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Return the object java serialized in BYTES. */
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return in.readObject();
+    }
+
+    /** Return the operations per second of ROUNDS runs since START. */
+    private static double opsPerSecond(long start) {
+        return ROUNDS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** Return a random full-length SHA-1 value. */
+    private static String randomId() {
+        return Utils.sha1(Double.toString(Math.random()));
+    }
+}
@@ -1,8 +1,12 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.io.StringWriter;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 
 /** Represents a gitlet commit object.
@@ -10,6 +14,12 @@ import java.util.Date;
  *  @author Y. Y. Y
  */
 public class Commit implements Serializable, Dumpable {
+    /** Pinned so commits of existing repositories still deserialize. */
+    private static final long serialVersionUID = 2809539474003698951L;
+    /** Format of the time stamp in logs, built once for all commits.
+     *  format: "Date: \w\w\w \w\w\w \d+ \d\d:\d\d:\d\d \d\d\d\d [-+]\d\d\d\d" */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("E MMM d HH:mm:ss yyyy Z").withZone(ZoneId.systemDefault());
     /** The message of this Commit. */
     private String message;
     /** The creation time of this Commit. */
@@ -35,7 +45,7 @@ public class Commit implements Serializable, Dumpable {
         this.message = msg;
         this.parents[0] = p;
         this.tree = t;
-        this.id = Utils.sha1(Utils.serialize(this));
+        this.id = Utils.sha1(Codec.encode(this));
     }
 
     /**
@@ -53,7 +63,7 @@ public class Commit implements Serializable, Dumpable {
         this.parents[0] = p;
         this.parents[1] = r;
         this.tree = t;
-        this.id = Utils.sha1(Utils.serialize(this));
+        this.id = Utils.sha1(Codec.encode(this));
     }
 
     /** New an empty commit. */
@@ -98,28 +108,12 @@ public class Commit implements Serializable, Dumpable {
         return this.parents[1];
     }
 
-    /** Compose a verbose version of log on this commit
+    /** Write the log of this commit shown by log commands.
      *
-     * @return a string contains useful info about this commit
+     * @param out the writer of useful info about this commit
      */
-    public String log() {
-        // header of a commit object
-        String log = "===\ncommit ";
-        // add ID
-        log += this.id + "\n";
-        // add merge info
-        if (parents[1] != null) {
-            log += "Merge: " + this.parents[0].substring(0, 7)
-                    + "\t" + this.parents[1].substring(0, 7) + "\n";
-        }
-        // add time stamp
-        // format: "Date: \w\w\w \w\w\w \d+ \d\d:\d\d:\d\d \d\d\d\d [-+]\d\d\d\d"
-        String pattern = "E MMM d HH:mm:ss yyyy Z";
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
-        log += "Date: " + dateFormat.format(this.timeStamp) + "\n";
-        // add commit message
-        log += this.message + "\n\n";
-        return log;
+    public void log(PrintWriter out) {
+        log(out, false);
     }
 
     /** Compose a verbose version of log on this commit
@@ -127,30 +121,37 @@ public class Commit implements Serializable, Dumpable {
      * @return a string contains useful info about this commit
      */
     public String debugLog() {
+        StringWriter log = new StringWriter();
+        PrintWriter out = new PrintWriter(log);
+        log(out, true);
+        out.flush();
+        return log.toString();
+    }
+
+    /** Write the log of this commit, with its tree if VERBOSE. */
+    private void log(PrintWriter out, boolean verbose) {
         // header of a commit object
-        String log = "===\ncommit ";
+        out.print("===\ncommit ");
         // add ID
-        log += this.id + "\n";
-        log += "tree " + this.getTree() + "\n";
+        out.print(this.id + "\n");
+        if (verbose) {
+            out.print("tree " + this.getTree() + "\n");
+        }
         // add merge info
         if (parents[1] != null) {
-            log += "Merge: " + this.parents[0].substring(0, 7)
-                    + "\t" + this.parents[1].substring(0, 7) + "\n";
+            out.print("Merge: " + this.parents[0].substring(0, 7)
+                    + "\t" + this.parents[1].substring(0, 7) + "\n");
         }
         // add time stamp
-        // format: "Date: \w\w\w \w\w\w \d+ \d\d:\d\d:\d\d \d\d\d\d [-+]\d\d\d\d"
-        String pattern = "E MMM d HH:mm:ss yyyy Z";
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
-        log += "Date: " + dateFormat.format(this.timeStamp) + "\n";
+        out.print("Date: " + DATE_FORMAT.format(this.timeStamp.toInstant()) + "\n");
         // add commit message
-        log += this.message + "\n\n";
-        return log;
+        out.print(this.message + "\n\n");
     }
 
     /** Store this commit and generate its SHA-1 value. */
     public void store(File storePath) {
         // all dumpable objects must store in "$REPO_DIR/objects/../..."
-        Utils.writeObject(Utils.join(storePath, this.id), this);
+        Utils.writeCompressedObject(Utils.join(storePath, this.id), this);
     }
 
     /** Load a Commit object by its ID and return it for assignment.
@@ -166,4 +167,27 @@ public class Commit implements Serializable, Dumpable {
     public void dump() {
         System.out.println(this.debugLog());
     }
+
+    /** Write this commit in the binary format. */
+    public void encode(Codec.Output out) throws IOException {
+        out.writeByte(Codec.COMMIT);
+        out.writeId(this.id);
+        out.writeString(this.message);
+        out.writeVarint(this.timeStamp.getTime());
+        out.writeId(this.parents[0]);
+        out.writeId(this.parents[1]);
+        out.writeId(this.tree);
+    }
+
+    /** Read a commit written by encode(). */
+    static Commit decode(Codec.Input in) throws IOException {
+        Commit c = new Commit();
+        c.id = in.readId();
+        c.message = in.readString();
+        c.timeStamp = new Date(in.readVarint());
+        c.parents[0] = in.readId();
+        c.parents[1] = in.readId();
+        c.tree = in.readId();
+        return c;
+    }
 }
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Represent the commit graph of a gitlet repository, a side file that
+ *  answers parent and generation queries without reading commit objects.
+ *  *********************** Layout ***************************
+ *  "CGPH" | version | record...
+ *  record = raw SHA-1 | first parent | second parent | generation | time
+ *  Parents are positions of earlier records, -1 for none. The generation
+ *  of a root commit is 1, any other is one more than its parents' maximum.
+ *  Records are only appended, a commit is added after its parents.
+ *
+ *  @author Y. Y. Y
+ */
+class CommitGraph {
+    /** Magic header of the commit-graph file. */
+    private static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+    /** Version of the commit-graph format. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 8;
+    /** Length of a raw SHA-1 value. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+    /** Length of a record. */
+    private static final int RECORD = RAW_LENGTH + 4 + 4 + 4 + 8;
+
+    /** The commit-graph file. */
+    private final File file;
+    /** Position of each commit by its ID. */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    /** Commit IDs by position. */
+    private String[] ids = new String[16];
+    /** First parents by position. */
+    private int[] parents = new int[16];
+    /** Second parents by position. */
+    private int[] relatives = new int[16];
+    /** Generation numbers by position. */
+    private int[] generations = new int[16];
+    /** Commit times by position. */
+    private long[] times = new long[16];
+    /** Number of commits in this graph. */
+    private int size;
+
+    /** Load the commit graph stored in FILE, empty if it does not exist. */
+    CommitGraph(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(file));
+        for (byte b : MAGIC) {
+            if (buf.remaining() == 0 || buf.get() != b) {
+                throw new IllegalArgumentException("bad commit graph " + file.getName());
+            }
+        }
+        buf.getInt();
+        byte[] raw = new byte[RAW_LENGTH];
+        // a partial record left by an interrupted append is ignored
+        while (buf.remaining() >= RECORD) {
+            buf.get(raw);
+            put(Utils.toHex(raw), buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong());
+        }
+        if (buf.remaining() > 0) {
+            truncate();
+        }
+    }
+
+    /** Check if the file has changed since this graph was loaded,
+     *  like by another gitlet process. */
+    boolean isStale() {
+        long loaded = this.size == 0 ? 0 : HEADER + (long) this.size * RECORD;
+        return this.file.length() != loaded;
+    }
+
+    /** Return the number of commits in this graph. */
+    int size() {
+        return this.size;
+    }
+
+    /** Return the position of a commit, or -1 if it is not in this graph. */
+    int find(String id) {
+        Integer i = this.positions.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /** Return the ID of the commit at position I. */
+    String getID(int i) {
+        return this.ids[i];
+    }
+
+    /** Return the position of the first parent of commit I, or -1. */
+    int getParent(int i) {
+        return this.parents[i];
+    }
+
+    /** Return the position of the second parent of commit I, or -1. */
+    int getRelative(int i) {
+        return this.relatives[i];
+    }
+
+    /** Return the generation number of commit I. */
+    int getGeneration(int i) {
+        return this.generations[i];
+    }
+
+    /** Return the creation time of commit I in milliseconds. */
+    long getTime(int i) {
+        return this.times[i];
+    }
+
+    /** Append a commit whose parents are already in this graph.
+     *
+     * @param id uid of the commit
+     * @param parent position of the first parent or -1
+     * @param relative position of the second parent or -1
+     * @param time creation time of the commit
+     * @return position of the commit
+     */
+    int add(String id, int parent, int relative, long time) {
+        int existing = find(id);
+        if (existing >= 0) {
+            return existing;
+        }
+        int generation = 1;
+        if (parent >= 0) {
+            generation = Math.max(generation, this.generations[parent] + 1);
+        }
+        if (relative >= 0) {
+            generation = Math.max(generation, this.generations[relative] + 1);
+        }
+        int i = put(id, parent, relative, generation, time);
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(this.file, true))) {
+            if (this.file.length() == 0) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Utils.fromHex(id));
+            out.writeInt(parent);
+            out.writeInt(relative);
+            out.writeInt(generation);
+            out.writeLong(time);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return i;
+    }
+
+    /** Record a commit in memory and return its position. */
+    private int put(String id, int parent, int relative, int generation, long time) {
+        if (this.size == this.ids.length) {
+            int capacity = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.parents = Arrays.copyOf(this.parents, capacity);
+            this.relatives = Arrays.copyOf(this.relatives, capacity);
+            this.generations = Arrays.copyOf(this.generations, capacity);
+            this.times = Arrays.copyOf(this.times, capacity);
+        }
+        int i = this.size;
+        this.ids[i] = id;
+        this.parents[i] = parent;
+        this.relatives[i] = relative;
+        this.generations[i] = generation;
+        this.times[i] = time;
+        this.positions.put(id, i);
+        this.size += 1;
+        return i;
+    }
+
+    /** Cut the file after the last complete record. */
+    private void truncate() {
+        try (RandomAccessFile f = new RandomAccessFile(this.file, "rw")) {
+            f.setLength(HEADER + (long) this.size * RECORD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
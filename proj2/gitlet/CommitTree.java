@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -11,6 +13,8 @@ import java.util.TreeMap;
  *  @author Y. Y. Y
  */
 public class CommitTree implements Tree {
+    /** Pinned so existing branches stay readable. */
+    private static final long serialVersionUID = 3793762959550282526L;
     /** Record <Key Commit ID, Value commit message> pairs. */
     private TreeMap<String, String> mapping = new TreeMap<>();
     /** The latest commit of this branch. */
@@ -27,7 +31,7 @@ public class CommitTree implements Tree {
             this.head = c.getID();
             this.mapping.put(c.getID(), c.getMsg());
         }
-        this.id = Utils.sha1(Utils.serialize(this));
+        this.id = Utils.sha1(Codec.encode(this));
     }
 
     /** New an empty commit tree. */
@@ -79,38 +83,26 @@ public class CommitTree implements Tree {
         return this.id;
     }
 
-    /** Find all commits in this tree with same commit message. */
-    public String findMsg(String msg) {
-        String ids = "";
-        for (Map.Entry<String, String> p : this.mapping.entrySet()) {
-            if (p.getValue().equals(msg)) {
-                ids += p.getKey() + "\n";
-            }
-        }
-        return ids;
-    }
-
-    /** Compose a verbose and tree-structure version of log on this tree
+    /** Write a verbose and tree-structure version of log on this tree
      *
-     *  @return a string represent the content and structure on this tree
+     *  @param out the writer of the content and structure on this tree
      */
-    public String log() {
+    public void log(PrintWriter out) {
         // header of a tree object
-        String log = "tree ";
+        out.print("tree ");
         // add ID
-        log += this.getID() + "\n";
+        out.print(this.getID() + "\n");
         if (this.mapping != null) {
             // add one line log for all dumpables in this tree
             for (Map.Entry<String, String> p : this.mapping.entrySet()) {
-                log += "*\t" + p.getValue() + "\t" + p.getKey() + "\n";
+                out.print("*\t" + p.getValue() + "\t" + p.getKey() + "\n");
             }
         }
-        return log;
     }
 
     /** Store this tree and generate its SHA-1 value. */
     public void store(File storePath) {
-        Utils.writeObject(Utils.join(storePath, this.id), this);
+        Utils.writeCompressedObject(Utils.join(storePath, this.id), this);
     }
 
     /** Load a tree object by its ID and return it for assignment.
@@ -126,4 +118,27 @@ public class CommitTree implements Tree {
     public void dump() {
         System.out.println(this.log());
     }
+
+    /** Write this tree in the binary format. */
+    public void encode(Codec.Output out) throws IOException {
+        out.writeByte(Codec.COMMIT_TREE);
+        out.writeId(this.id);
+        out.writeId(this.head);
+        out.writeVarint(this.mapping.size());
+        for (Map.Entry<String, String> p : this.mapping.entrySet()) {
+            out.writeId(p.getKey());
+            out.writeString(p.getValue());
+        }
+    }
+
+    /** Read a tree written by encode(). */
+    static CommitTree decode(Codec.Input in) throws IOException {
+        CommitTree t = new CommitTree();
+        t.id = in.readId();
+        t.head = in.readId();
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            t.mapping.put(in.readId(), in.readString());
+        }
+        return t;
+    }
 }
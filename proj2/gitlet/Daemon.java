@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.join;
+
+/** A long-lived gitlet process serving commands of one repository, so
+ *  that scripts running many commands pay the JVM startup and the load
+ *  of the repository only once. Commands are read from the Unix-domain
+ *  socket .gitlet/daemon.sock and run one at a time.
+ *  *********************** Protocol ***************************
+ *  request  = number of arguments | argument... , each on its own line
+ *  response = output of the command, then the connection is closed
+ *  Any program writing to the socket is a client, like
+ *      printf '2\nadd\nf.txt\n' | nc -U .gitlet/daemon.sock
+ *  The request "shutdown" stops the daemon.
+ *
+ *  @author Y. Y. Y
+ */
+class Daemon {
+    /** Name of the socket file in the .gitlet directory. */
+    static final String SOCKET = "daemon.sock";
+
+    /** The .gitlet directory served. */
+    private final File gitletDir;
+    /** The repository kept across commands, null until the first one. */
+    private Repository repository;
+    /** Modified time of the REPO file when the repository was loaded. */
+    private long loaded;
+
+    /** New a daemon serving the repository in GITLETDIR. */
+    Daemon(File gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    /** Return the repository for the next command. The repository is
+     *  reloaded only if its REPO file is replaced, otherwise it is
+     *  refreshed with the changes of other gitlet processes. */
+    Repository activate() {
+        File repo = join(this.gitletDir, "REPO");
+        if (this.repository == null || repo.lastModified() != this.loaded) {
+            this.loaded = repo.lastModified();
+            this.repository = Repository.activate(this.gitletDir);
+        } else {
+            this.repository.refresh();
+        }
+        return this.repository;
+    }
+
+    /** Serve commands until a shutdown request.
+     *  Throws IllegalArgumentException in case of problems. */
+    void serve() {
+        File socket = join(this.gitletDir, SOCKET);
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket.toPath());
+        if (socket.exists()) {
+            if (isRunning(address)) {
+                Repository.exitWithPrint("A gitlet daemon is already running.");
+            }
+            // left by a daemon which is killed
+            socket.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    // a client gone away only fails its own request
+                    System.err.println(excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Run the request of CLIENT with its output sent back.
+     *
+     * @return false if the daemon is asked to stop
+     */
+    private boolean handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), StandardCharsets.UTF_8));
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Utils.BUFFER_SIZE), false, StandardCharsets.UTF_8);
+        String count = in.readLine();
+        if (count == null) {
+            // closed without a request, like the probe of isRunning
+            return true;
+        }
+        String[] args = readRequest(count, in);
+        if (args == null) {
+            out.println("Malformed request.");
+            out.flush();
+            return true;
+        }
+        if (args.length == 1 && args[0].equals("shutdown")) {
+            out.println("Daemon stopped.");
+            out.flush();
+            return false;
+        }
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            Main.run(args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null && !excp.getMessage().equals("")) {
+                out.println(excp.getMessage());
+            }
+        } catch (RuntimeException excp) {
+            // the repository may be half updated, load it again
+            out.println(excp);
+            this.repository = null;
+        } finally {
+            System.setOut(stdout);
+            out.flush();
+        }
+        return true;
+    }
+
+    /** Return the arguments of a request of COUNT lines read from IN,
+     *  null if malformed. */
+    private static String[] readRequest(String count, BufferedReader in) throws IOException {
+        if (!count.trim().matches("\\d{1,4}")) {
+            return null;
+        }
+        String[] args = new String[Integer.parseInt(count.trim())];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readLine();
+            if (args[i] == null) {
+                return null;
+            }
+        }
+        return args;
+    }
+
+    /** Check if a daemon is listening on ADDRESS. The probe connects and
+     *  closes at once, which the daemon takes as no request. */
+    private static boolean isRunning(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Encode an object as the difference from a similar base object, so a
+ *  small edit of a large file is stored in a few bytes.
+ *  *********************** Layout ***************************
+ *  delta = base length | result length | instruction...
+ *  copy   = 1 | offset in base | length
+ *  insert = 0 | length | literal bytes
+ *  All numbers are varints as in Codec. Copies are found with a hash
+ *  table of the base blocks, matched against every offset of the target.
+ *
+ *  @author Y. Y. Y
+ */
+class Delta {
+    /** Length of the blocks of the base which are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power of BLOCK, to roll the first byte out. */
+    private static final int PRIME_POWER;
+    /** Instruction copying bytes of the base. */
+    private static final int COPY = 1;
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 0;
+
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        PRIME_POWER = p;
+    }
+
+    /** Return the delta turning BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        // index the hash of each whole block of the base by its offset
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(1, blocks) * 2) - 1;
+        int[] table = new int[mask + 1];
+        Arrays.fill(table, -1);
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            table[hash(base, b * BLOCK) & mask] = b * BLOCK;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(target.length / 4 + 16);
+        Codec.Output out = new Codec.Output(bytes);
+        try {
+            out.writeVarint(base.length);
+            out.writeVarint(target.length);
+            int literal = 0;
+            int i = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int candidate = blocks == 0 ? -1 : table[h & mask];
+                if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK,
+                        target, i, i + BLOCK)) {
+                    // extend the match backwards over pending literals, then forwards
+                    int start = candidate;
+                    while (start > 0 && i > literal
+                            && base[start - 1] == target[i - 1]) {
+                        start -= 1;
+                        i -= 1;
+                    }
+                    int length = candidate - start + BLOCK;
+                    while (start + length < base.length && i + length < target.length
+                            && base[start + length] == target[i + length]) {
+                        length += 1;
+                    }
+                    writeInsert(out, target, literal, i);
+                    out.writeByte(COPY);
+                    out.writeVarint(start);
+                    out.writeVarint(length);
+                    i += length;
+                    literal = i;
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK < target.length) {
+                    h = h * PRIME + (target[i + BLOCK] & 0xff) - PRIME_POWER * (target[i] & 0xff);
+                }
+                i += 1;
+            }
+            writeInsert(out, target, literal, target.length);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE.
+     *  Throws IllegalArgumentException if DELTA does not fit BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try {
+            Codec.Input in = new Codec.Input(new ByteArrayInputStream(delta));
+            if (in.readVarint() != base.length) {
+                throw new IllegalArgumentException("delta of another base");
+            }
+            byte[] result = new byte[Math.toIntExact(in.readVarint())];
+            int n = 0;
+            while (n < result.length) {
+                int op = in.readUnsignedByte();
+                if (op == COPY) {
+                    int offset = Math.toIntExact(in.readVarint());
+                    int length = Math.toIntExact(in.readVarint());
+                    System.arraycopy(base, offset, result, n, length);
+                    n += length;
+                } else if (op == INSERT) {
+                    int length = Math.toIntExact(in.readVarint());
+                    in.readFully(result, n, length);
+                    n += length;
+                } else {
+                    throw new IllegalArgumentException("bad delta instruction " + op);
+                }
+            }
+            return result;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("bad delta: " + excp.getMessage());
+        }
+    }
+
+    /** Write the bytes of TARGET from START to END as an insert, if any. */
+    private static void writeInsert(Codec.Output out, byte[] target, int start, int end)
+            throws IOException {
+        if (start < end) {
+            out.writeByte(INSERT);
+            out.writeVarint(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** Return the hash of the block of BYTES at OFFSET, the same as the
+     *  rolling hash reaching it. */
+    private static int hash(byte[] bytes, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            h = h * PRIME + (bytes[i] & 0xff);
+        }
+        return h;
+    }
+}
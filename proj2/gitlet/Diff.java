@@ -0,0 +1,456 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Compute the differences between two texts line by line, with the
+ *  linear-space variant of the Myers diff: the middle snake of an
+ *  optimal edit path is found by searching from both ends at once, and
+ *  the parts before and after it are compared the same way. Lines are
+ *  numbered first, so equal lines are compared as ints.
+ *  Texts are byte buffers and never decoded into strings.
+ *
+ *  @author Y. Y. Y
+ */
+class Diff {
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+    /** Number of leading bytes searched for a NUL to tell binary files. */
+    static final int BINARY_PROBE = 8000;
+
+    /** The numbered lines of the first text. */
+    private final int[] a;
+    /** The numbered lines of the second text. */
+    private final int[] b;
+    /** Furthest reaching forward paths by diagonal. */
+    private final int[] forward;
+    /** Furthest reaching backward paths by diagonal. */
+    private final int[] backward;
+    /** Differences found so far in order. */
+    private final List<Edit> edits = new ArrayList<>();
+
+    /** New a comparison of the numbered lines A and B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        int size = 2 * ((a.length + b.length + 1) / 2) + 3;
+        this.forward = new int[size];
+        this.backward = new int[size];
+    }
+
+    /** Return the differences turning the numbered lines A into B in
+     *  order. Edits are separated by at least one equal line. Lines of
+     *  one text which are not in the other never match, so they are left
+     *  out of the search, which then only sees the lines that may move.
+     */
+    static List<Edit> diff(int[] a, int[] b) {
+        int numbers = 0;
+        for (int n : a) {
+            numbers = Math.max(numbers, n + 1);
+        }
+        for (int n : b) {
+            numbers = Math.max(numbers, n + 1);
+        }
+        boolean[] inA = new boolean[numbers];
+        boolean[] inB = new boolean[numbers];
+        for (int n : a) {
+            inA[n] = true;
+        }
+        for (int n : b) {
+            inB[n] = true;
+        }
+        int[] aLines = shared(a, inB);
+        int[] bLines = shared(b, inA);
+        int[] x = new int[aLines.length];
+        int[] y = new int[bLines.length];
+        for (int i = 0; i < x.length; i += 1) {
+            x[i] = a[aLines[i]];
+        }
+        for (int i = 0; i < y.length; i += 1) {
+            y[i] = b[bLines[i]];
+        }
+        Diff d = new Diff(x, y);
+        d.compare(0, x.length, 0, y.length);
+        // lines between the edits of the shared lines match, every other
+        // line of the texts is changed
+        Diff result = new Diff(a, b);
+        int i = 0;
+        int j = 0;
+        int aDone = 0;
+        int bDone = 0;
+        for (int e = 0; e <= d.edits.size(); e += 1) {
+            int iEnd = e < d.edits.size() ? d.edits.get(e).aStart : x.length;
+            for (; i < iEnd; i += 1, j += 1) {
+                if (aLines[i] > aDone || bLines[j] > bDone) {
+                    result.add(aDone, aLines[i], bDone, bLines[j]);
+                }
+                aDone = aLines[i] + 1;
+                bDone = bLines[j] + 1;
+            }
+            if (e < d.edits.size()) {
+                i = d.edits.get(e).aEnd;
+                j = d.edits.get(e).bEnd;
+            }
+        }
+        if (aDone < a.length || bDone < b.length) {
+            result.add(aDone, a.length, bDone, b.length);
+        }
+        return result.edits;
+    }
+
+    /** Return the positions of the lines of TEXT which are in OTHER. */
+    private static int[] shared(int[] text, boolean[] other) {
+        int n = 0;
+        for (int line : text) {
+            n += other[line] ? 1 : 0;
+        }
+        int[] positions = new int[n];
+        n = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (other[text[i]]) {
+                positions[n] = i;
+                n += 1;
+            }
+        }
+        return positions;
+    }
+
+    /** Return the differences turning text A into B in order. */
+    static List<Edit> diff(Lines a, Lines b) {
+        int[][] ids = number(a, b);
+        return diff(ids[0], ids[1]);
+    }
+
+    /** Number the lines of TEXTS, equal lines by the same number.
+     *
+     * @return the numbers of the lines of each text
+     */
+    static int[][] number(Lines... texts) {
+        Map<Line, Integer> numbers = new HashMap<>();
+        int[][] ids = new int[texts.length][];
+        for (int t = 0; t < texts.length; t += 1) {
+            ids[t] = new int[texts[t].size()];
+            for (int i = 0; i < ids[t].length; i += 1) {
+                Line line = new Line(texts[t], i);
+                Integer n = numbers.putIfAbsent(line, numbers.size());
+                ids[t][i] = n == null ? numbers.size() - 1 : n;
+            }
+        }
+        return ids;
+    }
+
+    /** Write the changes of a file from A to B to OUT as a unified diff,
+     *  nothing if they are equal. Changes less than 2 * CONTEXT lines
+     *  apart share a hunk.
+     *
+     * @param name name of the file
+     * @param a old content, null if the file is added
+     * @param b new content, null if the file is removed
+     * @param out where the diff is written
+     */
+    static void writeUnified(String name, byte[] a, byte[] b, OutputStream out) throws IOException {
+        if (isBinary(a) || isBinary(b)) {
+            if (!Arrays.equals(a, b)) {
+                writeBinary(name, a != null, b != null, out);
+            }
+            return;
+        }
+        Lines x = new Lines(a == null ? new byte[0] : a);
+        Lines y = new Lines(b == null ? new byte[0] : b);
+        List<Edit> edits = diff(x, y);
+        if (edits.isEmpty() && (a == null) == (b == null)) {
+            return;
+        }
+        write(out, "diff --git a/%s b/%s\n".formatted(name, name));
+        write(out, "--- %s\n+++ %s\n".formatted(path("a/", name, a != null),
+                path("b/", name, b != null)));
+        for (int i = 0; i < edits.size(); ) {
+            int j = i + 1;
+            while (j < edits.size() && edits.get(j).aStart - edits.get(j - 1).aEnd <= 2 * CONTEXT) {
+                j += 1;
+            }
+            Edit first = edits.get(i);
+            Edit last = edits.get(j - 1);
+            int aLo = Math.max(0, first.aStart - CONTEXT);
+            int bLo = first.bStart - (first.aStart - aLo);
+            int aHi = Math.min(x.size(), last.aEnd + CONTEXT);
+            int bHi = last.bEnd + (aHi - last.aEnd);
+            write(out, "@@ -%s +%s @@\n".formatted(range(aLo, aHi), range(bLo, bHi)));
+            int k = aLo;
+            for (Edit e : edits.subList(i, j)) {
+                writeLines(out, ' ', x, k, e.aStart);
+                writeLines(out, '-', x, e.aStart, e.aEnd);
+                writeLines(out, '+', y, e.bStart, e.bEnd);
+                k = e.aEnd;
+            }
+            writeLines(out, ' ', x, k, aHi);
+            i = j;
+        }
+    }
+
+    /** Return the range [LO, HI) of lines in a hunk header, the line
+     *  before it if it is empty. */
+    private static String range(int lo, int hi) {
+        if (hi - lo == 1) {
+            return Integer.toString(lo + 1);
+        }
+        return (hi == lo ? lo : lo + 1) + "," + (hi - lo);
+    }
+
+    /** Write lines [FROM, TO) of TEXT to OUT, each after PREFIX. */
+    private static void writeLines(OutputStream out, char prefix, Lines text,
+                                   int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            text.write(out, i, i + 1);
+            if (!text.isTerminated(i)) {
+                write(out, "\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Write TEXT to OUT in UTF-8. */
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Write that a binary file changed to OUT, without its content.
+     *
+     * @param name name of the file
+     * @param from if the file exists before
+     * @param to if the file exists after
+     * @param out where the diff is written
+     */
+    static void writeBinary(String name, boolean from, boolean to, OutputStream out)
+            throws IOException {
+        write(out, "diff --git a/%s b/%s\n".formatted(name, name));
+        write(out, "Binary files %s and %s differ\n".formatted(path("a/", name, from),
+                path("b/", name, to)));
+    }
+
+    /** Return the path of a file NAME after PREFIX in a diff, or
+     *  /dev/null if it does not EXIST. */
+    private static String path(String prefix, String name, boolean exists) {
+        return exists ? prefix + name : "/dev/null";
+    }
+
+    /** Check if CONTENT has a NUL byte near its start, like binary
+     *  files. CONTENT may be only the first bytes of a file, or null. */
+    static boolean isBinary(byte[] content) {
+        if (content == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(content.length, BINARY_PROBE); i += 1) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Find the differences of lines A[ALO, AHI) and B[BLO, BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && this.a[aLo] == this.b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && this.a[aHi - 1] == this.b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, snake[0], bLo, snake[1]);
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Return the start and end {x, y, u, v} of the middle snake of an
+     *  optimal path through A[ALO, AHI) and B[BLO, BHI), which differ at
+     *  both ends. Forward paths are kept by diagonal k = x - y from the
+     *  start, backward paths by diagonal from the end. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int offset = (n + m + 1) / 2 + 1;
+        int[] vf = this.forward;
+        int[] vb = this.backward;
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && vf[offset + k - 1] < vf[offset + k + 1]
+                        ? vf[offset + k + 1] : vf[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                while (x < n && y < m && this.a[aLo + x] == this.b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[offset + k] = x;
+                // the backward paths of d - 1 steps lie on these diagonals
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + vb[offset + delta - k] >= n) {
+                    return new int[] {aLo + x0, bLo + x0 - k, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && vb[offset + k - 1] < vb[offset + k + 1]
+                        ? vb[offset + k + 1] : vb[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                while (x < n && y < m && this.a[aHi - 1 - x] == this.b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[offset + k] = x;
+                int fk = delta - k;
+                if (!odd && fk >= -d && fk <= d && vf[offset + fk] + x >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - (x0 - k)};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Append an edit, joining it to the last one if they touch. */
+    private void add(int aStart, int aEnd, int bStart, int bEnd) {
+        if (!this.edits.isEmpty()) {
+            Edit last = this.edits.get(this.edits.size() - 1);
+            if (last.aEnd == aStart && last.bEnd == bStart) {
+                this.edits.set(this.edits.size() - 1, new Edit(last.aStart, aEnd, last.bStart, bEnd));
+                return;
+            }
+        }
+        this.edits.add(new Edit(aStart, aEnd, bStart, bEnd));
+    }
+
+    /** A difference: lines [aStart, aEnd) of the first text are replaced
+     *  by lines [bStart, bEnd) of the second. */
+    static class Edit {
+        /** First line of the first text replaced. */
+        final int aStart;
+        /** End of the lines of the first text replaced. */
+        final int aEnd;
+        /** First line of the second text inserted. */
+        final int bStart;
+        /** End of the lines of the second text inserted. */
+        final int bEnd;
+
+        /** New an edit replacing A[ASTART, AEND) by B[BSTART, BEND). */
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of a text, each with its line terminator. The last line
+     *  may have no terminator. */
+    static class Lines {
+        /** Bytes of the text. */
+        private final byte[] bytes;
+        /** Offset of each line, then the length of the text. */
+        private final int[] starts;
+
+        /** New the lines of BYTES. */
+        Lines(byte[] bytes) {
+            this.bytes = bytes;
+            int n = 0;
+            for (byte c : bytes) {
+                if (c == '\n') {
+                    n += 1;
+                }
+            }
+            boolean partial = bytes.length > 0 && bytes[bytes.length - 1] != '\n';
+            this.starts = new int[n + (partial ? 1 : 0) + 1];
+            int line = 1;
+            for (int i = 0; i < bytes.length; i += 1) {
+                if (bytes[i] == '\n' && line < this.starts.length) {
+                    this.starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            this.starts[this.starts.length - 1] = bytes.length;
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return this.starts.length - 1;
+        }
+
+        /** Return the offset of line I, or the length of the text if I is
+         *  the number of lines. */
+        int start(int i) {
+            return this.starts[i];
+        }
+
+        /** Check if line I ends with a line terminator. */
+        boolean isTerminated(int i) {
+            return this.starts[i + 1] > this.starts[i] && this.bytes[this.starts[i + 1] - 1] == '\n';
+        }
+
+        /** Write lines [FROM, TO) to OUT. */
+        void write(OutputStream out, int from, int to) throws IOException {
+            out.write(this.bytes, this.starts[from], this.starts[to] - this.starts[from]);
+        }
+
+        /** Check if lines [FROM, TO) equal lines [OFROM, OTO) of OTHER. */
+        boolean equals(int from, int to, Lines other, int oFrom, int oTo) {
+            return Arrays.equals(this.bytes, this.starts[from], this.starts[to],
+                    other.bytes, other.starts[oFrom], other.starts[oTo]);
+        }
+    }
+
+    /** A line of a text, compared by its bytes. */
+    private static class Line {
+        /** The text of the line. */
+        private final Lines text;
+        /** Offset of the line. */
+        private final int start;
+        /** End of the line. */
+        private final int end;
+        /** Hash of the bytes of the line. */
+        private final int hash;
+
+        /** New line I of TEXT. */
+        Line(Lines text, int i) {
+            this.text = text;
+            this.start = text.starts[i];
+            this.end = text.starts[i + 1];
+            int h = 1;
+            for (int k = this.start; k < this.end; k += 1) {
+                h = 31 * h + text.bytes[k];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) o;
+            return this.hash == other.hash && Arrays.equals(this.text.bytes, this.start, this.end,
+                    other.text.bytes, other.start, other.end);
+        }
+    }
+}
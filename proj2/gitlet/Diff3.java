@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Merge two texts changed from a common base line by line. Both texts
+ *  are compared with the base; changes of one side are taken as they
+ *  are, and changes of both sides which overlap or touch in the base
+ *  form a conflict unless both sides made the same change. Only the
+ *  lines of a conflict are written between conflict markers, the rest of
+ *  the text is merged.
+ *
+ *  @author Y. Y. Y
+ */
+class Diff3 {
+    /** Marker before the lines of the current branch. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /** Marker between the lines of both sides. */
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    /** Marker after the lines of the given branch. */
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Merge OURS and THEIRS changed from BASE into OUT. A missing text is
+     *  given as an empty one.
+     *
+     * @param base the text of the split point
+     * @param ours the text of the current branch
+     * @param theirs the text of the given branch
+     * @param out where the merged text is written
+     * @return true if any conflict is written
+     */
+    static boolean merge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs,
+                         OutputStream out) throws IOException {
+        int[][] ids = Diff.number(base, ours, theirs);
+        List<Diff.Edit> mine = Diff.diff(ids[0], ids[1]);
+        List<Diff.Edit> yours = Diff.diff(ids[0], ids[2]);
+        boolean conflicted = false;
+        // the base line up to which the text is written
+        int done = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mine.size() || j < yours.size()) {
+            // gather the edits of both sides overlapping or touching the
+            // first one left into a region of the base
+            int lo = Math.min(i < mine.size() ? mine.get(i).aStart : Integer.MAX_VALUE,
+                    j < yours.size() ? yours.get(j).aStart : Integer.MAX_VALUE);
+            int hi = lo;
+            int iEnd = i;
+            int jEnd = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (iEnd < mine.size() && mine.get(iEnd).aStart <= hi) {
+                    hi = Math.max(hi, mine.get(iEnd).aEnd);
+                    iEnd += 1;
+                    grown = true;
+                }
+                if (jEnd < yours.size() && yours.get(jEnd).aStart <= hi) {
+                    hi = Math.max(hi, yours.get(jEnd).aEnd);
+                    jEnd += 1;
+                    grown = true;
+                }
+            }
+            base.write(out, done, lo);
+            int[] a = region(mine, i, iEnd, lo, hi);
+            int[] b = region(yours, j, jEnd, lo, hi);
+            if (jEnd == j) {
+                ours.write(out, a[0], a[1]);
+            } else if (iEnd == i || ours.equals(a[0], a[1], theirs, b[0], b[1])) {
+                theirs.write(out, b[0], b[1]);
+            } else {
+                out.write(OURS);
+                ours.write(out, a[0], a[1]);
+                out.write(SEPARATOR);
+                theirs.write(out, b[0], b[1]);
+                out.write(THEIRS);
+                conflicted = true;
+            }
+            done = hi;
+            i = iEnd;
+            j = jEnd;
+        }
+        base.write(out, done, base.size());
+        return conflicted;
+    }
+
+    /** Return the lines {from, to} of a side matching lines [LO, HI) of
+     *  the base, given the edits [FROM, TO) of the side in that region.
+     *  Base lines outside the edits are unchanged on the side. */
+    private static int[] region(List<Diff.Edit> edits, int from, int to, int lo, int hi) {
+        if (from == to) {
+            // unchanged, the side is offset by the edits before the region
+            int shift = from == 0 ? 0 : edits.get(from - 1).bEnd - edits.get(from - 1).aEnd;
+            return new int[] {lo + shift, hi + shift};
+        }
+        Diff.Edit first = edits.get(from);
+        Diff.Edit last = edits.get(to - 1);
+        return new int[] {first.bStart - (first.aStart - lo), last.bEnd + (hi - last.aEnd)};
+    }
+}
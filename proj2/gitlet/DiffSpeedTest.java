@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Performs a timing test on the line diff of large files, with more
+ *  and more lines changed between two versions.
+ *  Usage: java gitlet.DiffSpeedTest [number of lines in the file]
+ *
+ *  @author Y. Y. Y
+ */
+public class DiffSpeedTest {
+    /** Rounds run before timing, to let the JIT compile the diff. */
+    private static final int WARM_UP = 5;
+    /** Rounds timed for each test. */
+    private static final int ROUNDS = 10;
+    /** Fractions of lines changed in the second version. */
+    private static final double[] CHANGED = {0.0001, 0.001, 0.01, 0.1};
+
+    /** Times diffing two versions of a file, and writing their unified
+     *  diff. ARGS may hold the number of lines of the file. */
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(61);
+        String[] lines = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            lines[i] = "line " + i + " " + Long.toHexString(random.nextLong()) + "\n";
+        }
+        byte[] a = join(lines);
+        System.out.printf("%-10s %10s %10s %14s %14s%n",
+                "changed", "edits", "diff bytes", "diff ms", "unified ms");
+        for (double changed : CHANGED) {
+            String[] other = lines.clone();
+            for (int k = 0; k < n * changed; k += 1) {
+                other[random.nextInt(n)] = "changed " + random.nextInt() + "\n";
+            }
+            byte[] b = join(other);
+            for (int i = 0; i < WARM_UP; i += 1) {
+                Diff.diff(new Diff.Lines(a), new Diff.Lines(b));
+            }
+
+            long start = System.nanoTime();
+            int edits = 0;
+            for (int i = 0; i < ROUNDS; i += 1) {
+                edits = Diff.diff(new Diff.Lines(a), new Diff.Lines(b)).size();
+            }
+            double diff = millisPerRound(start);
+            ByteArrayOutputStream unified = new ByteArrayOutputStream();
+            Diff.writeUnified("file", a, b, unified);
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i += 1) {
+                Diff.writeUnified("file", a, b, OutputStream.nullOutputStream());
+            }
+            double write = millisPerRound(start);
+            System.out.printf("%-10s %10d %10d %14.1f %14.1f%n",
+                    changed * 100 + "%", edits, unified.size(), diff, write);
+        }
+    }
+
+    /** Return the bytes of LINES one after another. */
+    private static byte[] join(String[] lines) {
+        return String.join("", lines).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the milliseconds of one of ROUNDS runs since START. */
+    private static double millisPerRound(long start) {
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+}
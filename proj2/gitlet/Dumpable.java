@@ -1,7 +1,10 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
 
 /** An interface describing dumpable objects.
  *  All other gitlet objects like commit, tree, and blob are inherited
@@ -9,7 +12,7 @@ import java.io.Serializable;
  *  using methods @code{store()}, @code{load(id)} etc.
  *  A visualization of the Dumpables' hierarchy is as follows:
  *  *********************** Hierarchy ***************************
- *  Dumpable (getID(), log(), store(), load(Dumpable), dump())
+ *  Dumpable (getID(), log(out), store(), load(Dumpable), dump(), encode())
  * |
  * +- commit (getTree(), getMsg(), getParent(), getRelative())
  * |
@@ -30,11 +33,22 @@ interface Dumpable extends Serializable {
     /** Return the SHA-1 value of this dumpable. */
     String getID();
     /** Compose a log of this dumpable object. */
-    String log();
+    default String log() {
+        StringWriter log = new StringWriter();
+        PrintWriter out = new PrintWriter(log);
+        log(out);
+        out.flush();
+        return log.toString();
+    }
+    /** Write a log of this dumpable object to OUT, without composing it
+     *  in memory first. */
+    void log(PrintWriter out);
     /** Store a dumpable object. */
     void store(File storePath);
     /** Load a dumpable object and replace with it. */
     Dumpable load(File f);
     /** Print useful information about this object on System.out. */
     void dump();
+    /** Write the type and fields of this object in the binary format. */
+    void encode(Codec.Output out) throws IOException;
 }
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+/** Represent the journal of all commits made in a gitlet repository,
+ *  which is only appended to, so a commit costs the same however long
+ *  the history is. Messages are kept in a side file in the same order.
+ *  *********************** Layout ***************************
+ *  journal  = "JRNL" | version | record...
+ *  record   = raw SHA-1 | message offset | message length
+ *  messages = UTF-8 bytes of each message, back to back
+ *  A message is appended before its record, so a record always points
+ *  at a complete message; a partial record left by an interrupted
+ *  append is ignored.
+ *
+ *  @author Y. Y. Y
+ */
+class Journal {
+    /** Magic header of the journal file. */
+    private static final byte[] MAGIC = {'J', 'R', 'N', 'L'};
+    /** Version of the journal format. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 8;
+    /** Length of a raw SHA-1 value. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+    /** Length of a record. */
+    private static final int RECORD = RAW_LENGTH + 8 + 4;
+
+    /** The journal file. */
+    private final File file;
+    /** The file of commit messages. */
+    private final File messages;
+
+    /** New a journal kept in FILE and MESSAGES, empty if they do not exist. */
+    Journal(File file, File messages) {
+        this.file = file;
+        this.messages = messages;
+    }
+
+    /** Return the number of commits in this journal. */
+    long size() {
+        return Math.max(0, this.file.length() - HEADER) / RECORD;
+    }
+
+    /** Append a commit to this journal.
+     *  Throws IllegalArgumentException in case of problems.
+     *
+     * @param id uid of the commit
+     * @param message message of the commit
+     */
+    void append(String id, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long offset = this.messages.length();
+        long records = size();
+        try {
+            try (FileOutputStream out = new FileOutputStream(this.messages, true)) {
+                out.write(bytes);
+            }
+            try (FileOutputStream stream = new FileOutputStream(this.file, true)) {
+                // drop a partial record before appending after it
+                stream.getChannel().truncate(records == 0 ? 0 : HEADER + records * RECORD);
+                DataOutputStream out = new DataOutputStream(stream);
+                if (records == 0) {
+                    out.write(MAGIC);
+                    out.writeInt(VERSION);
+                }
+                out.write(Utils.fromHex(id));
+                out.writeLong(offset);
+                out.writeInt(bytes.length);
+                out.flush();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Perform ACTION on the ID and message of each commit in this journal
+     *  in commit order. Both files are streamed, never loaded whole.
+     *  Throws IllegalArgumentException in case of problems.
+     */
+    void forEach(BiConsumer<String, String> action) {
+        forEach(0, Long.MAX_VALUE, action);
+    }
+
+    /** Perform ACTION on the ID and message of at most COUNT commits in
+     *  this journal from position FROM on, in commit order.
+     *  Throws IllegalArgumentException in case of problems.
+     */
+    void forEach(long from, long count, BiConsumer<String, String> action) {
+        long n = Math.min(size() - from, count);
+        if (n <= 0) {
+            return;
+        }
+        try (FileInputStream recordFile = new FileInputStream(this.file);
+             FileInputStream textFile = new FileInputStream(this.messages)) {
+            checkHeader(recordFile);
+            recordFile.getChannel().position(HEADER + from * RECORD);
+            DataInputStream records = new DataInputStream(
+                    new BufferedInputStream(recordFile, Utils.BUFFER_SIZE));
+            InputStream texts = null;
+            byte[] raw = new byte[RAW_LENGTH];
+            long position = 0;
+            for (; n > 0; n -= 1) {
+                records.readFully(raw);
+                long offset = records.readLong();
+                byte[] text = new byte[records.readInt()];
+                if (texts == null) {
+                    textFile.getChannel().position(offset);
+                    texts = new BufferedInputStream(textFile, Utils.BUFFER_SIZE);
+                    position = offset;
+                }
+                // skip a message whose record was never appended
+                position += texts.skip(offset - position);
+                if (position != offset || texts.readNBytes(text, 0, text.length) != text.length) {
+                    throw new EOFException("truncated " + this.messages.getName());
+                }
+                position += text.length;
+                action.accept(Utils.toHex(raw), new String(text, StandardCharsets.UTF_8));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Perform ACTION on the ID and message of the commits at POSITIONS,
+     *  which are in ascending order, reading only their records.
+     *  Throws IllegalArgumentException in case of problems.
+     */
+    void forEach(long[] positions, BiConsumer<String, String> action) {
+        if (positions.length == 0) {
+            return;
+        }
+        long n = size();
+        try (RandomAccessFile records = new RandomAccessFile(this.file, "r");
+             RandomAccessFile texts = new RandomAccessFile(this.messages, "r")) {
+            byte[] raw = new byte[RAW_LENGTH];
+            for (long i : positions) {
+                if (i < 0 || i >= n) {
+                    throw new IllegalArgumentException("no commit %d in journal".formatted(i));
+                }
+                records.seek(HEADER + i * RECORD);
+                records.readFully(raw);
+                long offset = records.readLong();
+                byte[] text = new byte[records.readInt()];
+                texts.seek(offset);
+                texts.readFully(text);
+                action.accept(Utils.toHex(raw), new String(text, StandardCharsets.UTF_8));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Check the header of the journal file read from IN. */
+    private void checkHeader(InputStream in) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (magic.length != MAGIC.length || magic[i] != MAGIC[i]) {
+                throw new IllegalArgumentException("bad journal " + this.file.getName());
+            }
+        }
+    }
+
+    /** Remove both files of this journal. */
+    void clear() {
+        this.file.delete();
+        this.messages.delete();
+    }
+}
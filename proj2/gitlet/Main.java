@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.util.Arrays;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.join;
@@ -13,10 +14,28 @@ public class Main {
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(System.getProperty("user.dir"), ".gitlet");
 
+    /** The daemon serving commands in this JVM, null if there is none. */
+    private static Daemon daemon;
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null && !excp.getMessage().equals("")) {
+                System.out.println(excp.getMessage());
+            }
+            System.exit(0);
+        }
+    }
+
+    /** Run the command in ARGS, aborts with a GitletException on errors.
+     *
+     * @param args Argument array from command line
+     */
+    static void run(String[] args) {
         // If input args is empty, exit
         if (args.length == 0)
             exitWithPrint("Please enter a command.");
@@ -29,8 +48,10 @@ public class Main {
                 init();
             }
             case "add" -> {
-                validateNumArgs(args, 2);
-                activate().add(args[1]);
+                // java gitlet.Main add [file name | . | glob]...
+                if (args.length < 2)
+                    exitWithPrint("Incorrect operands.");
+                activate().add(Arrays.copyOfRange(args, 1, args.length));
             }
             case "commit" -> {
                 validateNumArgs(args, 2);
@@ -42,14 +63,14 @@ public class Main {
                 activate().remove(args[1]);
             }
             case "log" -> {
-                // java gitlet.Main log
-                validateNumArgs(args, 1);
-                activate().log();
+                // java gitlet.Main log [-n <count> | --max-count=<count>] [--skip=<count>]
+                long[] range = parseRange(args);
+                activate().log(range[0], range[1]);
             }
             case "global-log" -> {
-                // java gitlet.Main global-log
-                validateNumArgs(args, 1);
-                activate().globalLog();
+                // java gitlet.Main global-log [-n <count> | --max-count=<count>] [--skip=<count>]
+                long[] range = parseRange(args);
+                activate().globalLog(range[0], range[1]);
             }
             case "checkout" -> {
                 if (args.length == 3) {
@@ -68,9 +89,15 @@ public class Main {
                 } else exitWithPrint("Incorrect operands.");
             }
             case "find" -> {
-                // java gitlet.Main find [commit message]
-                validateNumArgs(args, 2);
-                activate().find(args[1]);
+                if (args.length == 3) {
+                    // java gitlet.Main find --words [words]
+                    // java gitlet.Main find --contains [text]
+                    activate().find(args[1], args[2]);
+                } else {
+                    // java gitlet.Main find [commit message]
+                    validateNumArgs(args, 2);
+                    activate().find(args[1]);
+                }
             }
             case "branch" -> {
                 // java gitlet.Main branch [branch name]
@@ -97,6 +124,15 @@ public class Main {
                 validateNumArgs(args, 2);
                 activate().merge(args[1]);
             }
+            case "diff" -> {
+                // java gitlet.Main diff [commit id] [commit id]
+                if (args.length == 1) {
+                    activate().diff();
+                } else {
+                    validateNumArgs(args, 3);
+                    activate().diff(args[1], args[2]);
+                }
+            }
             case "add-remote" -> {
                 // java gitlet.Main add-remote [remote-name] [remote directory]/.gitlet
                 validateNumArgs(args, 3);
@@ -122,6 +158,41 @@ public class Main {
                 validateNumArgs(args, 3);
                 activate().pull(args[1], args[2]);
             }
+            case "repack" -> {
+                // java gitlet.Main repack [-a] [--window=<count>] [--depth=<count>]
+                boolean all = false;
+                int window = PackFile.DEFAULT_WINDOW;
+                int depth = PackFile.DEFAULT_DEPTH;
+                for (int i = 1; i < args.length; i += 1) {
+                    if (args[i].equals("-a")) {
+                        all = true;
+                    } else if (args[i].startsWith("--window=")) {
+                        window = (int) parseCount(args[i].substring("--window=".length()));
+                    } else if (args[i].startsWith("--depth=")) {
+                        depth = (int) parseCount(args[i].substring("--depth=".length()));
+                    } else exitWithPrint("Incorrect operands.");
+                }
+                activate().repack(all, window, depth);
+            }
+            case "gc" -> {
+                // java gitlet.Main gc [--dry-run]
+                if (args.length > 2 || args.length == 2 && !args[1].equals("--dry-run"))
+                    exitWithPrint("Incorrect operands.");
+                activate().gc(args.length == 2);
+            }
+            case "daemon" -> {
+                // java gitlet.Main daemon
+                validateNumArgs(args, 1);
+                if (daemon != null)
+                    exitWithPrint("A gitlet daemon is already running.");
+                activate();
+                daemon = new Daemon(GITLET_DIR);
+                try {
+                    daemon.serve();
+                } finally {
+                    daemon = null;
+                }
+            }
             default -> exitWithPrint("No command with that name exists.");
         }
     }
@@ -138,16 +209,60 @@ public class Main {
             exitWithPrint("Incorrect operands.");
     }
 
+    /**
+     * Parses the paging options of a log command, exits the program
+     * with error message if they are malformed.
+     *
+     * @param args Argument array from command line
+     * @return the number of commits to skip and the maximum to print
+     */
+    public static long[] parseRange(String[] args) {
+        long[] range = {0, Long.MAX_VALUE};
+        for (int i = 1; i < args.length; i += 1) {
+            String count = null;
+            int which = 1;
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                i += 1;
+                count = args[i];
+            } else if (args[i].startsWith("--max-count=")) {
+                count = args[i].substring("--max-count=".length());
+            } else if (args[i].startsWith("--skip=")) {
+                count = args[i].substring("--skip=".length());
+                which = 0;
+            }
+            if (count == null)
+                exitWithPrint("Incorrect operands.");
+            range[which] = parseCount(count);
+        }
+        return range;
+    }
+
+    /**
+     * Parses the count given to an option, exits the program with
+     * error message if it is not a non-negative number.
+     *
+     * @param count the text of the count
+     * @return the count
+     */
+    public static long parseCount(String count) {
+        if (!count.matches("\\d{1,9}"))
+            exitWithPrint("Incorrect operands.");
+        return Long.parseLong(count);
+    }
+
     /** Check the existence of an initialized Gitlet working
      *  directory before executing the command. Exit the
      *  program with error message if not.
      *
-     * @return the working gitlet repository
+     * @return the working gitlet repository, kept warm by a daemon
      */
     public static Repository activate() {
         if (!GITLET_DIR.exists()) {
             exitWithPrint("Not in an initialized Gitlet directory.");
         }
+        if (daemon != null) {
+            return daemon.activate();
+        }
         return Repository.activate(GITLET_DIR);
     }
 }
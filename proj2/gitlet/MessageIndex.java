@@ -0,0 +1,360 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.LongStream;
+
+/** Represent the index of commit messages of a gitlet repository, which
+ *  maps a message and each of its words to the positions of commits in
+ *  the journal. Keys are 64-bit hashes, so a lookup returns candidates
+ *  which must be checked against the journal.
+ *  *********************** Layout ***************************
+ *  entry   = key | journal position
+ *  log     = entries appended by the latest commits, unsorted
+ *  seg-N   = entries sorted by key and position, found by binary search
+ *  size    = number of journal commits indexed
+ *  A full log is sorted into a new segment, which is merged with older
+ *  segments no more than twice its size, so there are O(log n) segments.
+ *  Entries are only added, a duplicate left by an interrupted update is
+ *  harmless.
+ *
+ *  @author Y. Y. Y
+ */
+class MessageIndex {
+    /** Length of an entry. */
+    private static final int ENTRY = 8 + 4;
+    /** Number of entries in the log before it is sorted into a segment. */
+    private static final int LOG_LIMIT = 1024;
+    /** Kind of the key of a whole message. */
+    private static final char MESSAGE = 'm';
+    /** Kind of the key of a word. */
+    private static final char WORD = 'w';
+
+    /** The index directory. */
+    private final File dir;
+    /** The log file. */
+    private final File log;
+    /** The file of the number of indexed commits. */
+    private final File sizeFile;
+    /** Keys of entries not written to the log yet. */
+    private long[] pendingKeys = new long[16];
+    /** Positions of entries not written to the log yet. */
+    private int[] pendingPositions = new int[16];
+    /** Number of entries not written to the log yet. */
+    private int pending;
+    /** Number of indexed commits, including pending ones. */
+    private long size;
+    /** Opened segments, loaded at the first lookup. */
+    private List<ByteBuffer> segments;
+
+    /** New a message index kept in DIR, empty if it does not exist. */
+    MessageIndex(File dir) {
+        this.dir = dir;
+        this.log = Utils.join(dir, "log");
+        this.sizeFile = Utils.join(dir, "size");
+        if (this.sizeFile.exists()) {
+            this.size = Long.parseLong(Utils.readContentsAsString(this.sizeFile).trim());
+        }
+    }
+
+    /** Return the number of journal commits indexed. */
+    long size() {
+        return this.size;
+    }
+
+    /** Index the message of the commit at POSITION in the journal, which
+     *  must be the next one. Call save() to write the index. */
+    void add(long position, String message) {
+        LinkedHashSet<Long> keys = new LinkedHashSet<>();
+        keys.add(key(MESSAGE, message));
+        for (String w : words(message)) {
+            keys.add(key(WORD, w));
+        }
+        for (long k : keys) {
+            if (this.pending == this.pendingKeys.length) {
+                this.pendingKeys = Arrays.copyOf(this.pendingKeys, this.pending * 2);
+                this.pendingPositions = Arrays.copyOf(this.pendingPositions, this.pending * 2);
+            }
+            this.pendingKeys[this.pending] = k;
+            this.pendingPositions[this.pending] = Math.toIntExact(position);
+            this.pending += 1;
+        }
+        this.size = position + 1;
+        if (this.pending >= LOG_LIMIT) {
+            save();
+        }
+    }
+
+    /** Write the added entries, sorting a full log into a segment.
+     *  Throws IllegalArgumentException in case of problems. */
+    void save() {
+        if (this.pending == 0) {
+            return;
+        }
+        this.dir.mkdir();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.log, true), Utils.BUFFER_SIZE))) {
+            for (int i = 0; i < this.pending; i += 1) {
+                out.writeLong(this.pendingKeys[i]);
+                out.writeInt(this.pendingPositions[i]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        this.pending = 0;
+        Utils.writeContents(this.sizeFile, this.size + "\n");
+        if (this.log.length() >= (long) LOG_LIMIT * ENTRY) {
+            compact();
+        }
+    }
+
+    /** Return the journal positions of commits which may have MESSAGE,
+     *  in ascending order. */
+    long[] findMessage(String message) {
+        return lookup(key(MESSAGE, message));
+    }
+
+    /** Return the journal positions of commits which may have all WORDS,
+     *  in ascending order. */
+    long[] findWords(Collection<String> words) {
+        long[] result = null;
+        for (String w : words) {
+            long[] found = lookup(key(WORD, w.toLowerCase(Locale.ROOT)));
+            result = result == null ? found : intersect(result, found);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result == null ? new long[0] : result;
+    }
+
+    /** Return the distinct lower-case words of TEXT, which are runs of
+     *  letters and digits. */
+    static List<String> words(String text) {
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /** Return the words of TEXT which are whole words of any message
+     *  containing TEXT, i.e. all but a word cut at either end. */
+    static List<String> innerWords(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isLetterOrDigit(text.charAt(start))) {
+            start += 1;
+        }
+        int end = text.length();
+        while (end > start && Character.isLetterOrDigit(text.charAt(end - 1))) {
+            end -= 1;
+        }
+        return words(text.substring(start, end));
+    }
+
+    /** Return the sorted distinct positions of entries with KEY. */
+    private long[] lookup(long key) {
+        LongStream.Builder found = LongStream.builder();
+        for (ByteBuffer buf : segments()) {
+            int count = buf.limit() / ENTRY;
+            for (int i = lowerBound(buf, count, key);
+                 i < count && buf.getLong(i * ENTRY) == key; i += 1) {
+                found.add(buf.getInt(i * ENTRY + 8));
+            }
+        }
+        if (this.log.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(this.log));
+            for (int i = 0; i < buf.limit() / ENTRY; i += 1) {
+                if (buf.getLong(i * ENTRY) == key) {
+                    found.add(buf.getInt(i * ENTRY + 8));
+                }
+            }
+        }
+        for (int i = 0; i < this.pending; i += 1) {
+            if (this.pendingKeys[i] == key) {
+                found.add(this.pendingPositions[i]);
+            }
+        }
+        return found.build().sorted().distinct().toArray();
+    }
+
+    /** Return the index of the first of COUNT sorted entries in BUF whose
+     *  key is not less than KEY. */
+    private static int lowerBound(ByteBuffer buf, int count, long key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getLong(mid * ENTRY) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the positions in both sorted arrays A and B. */
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the opened segments from the oldest. */
+    private List<ByteBuffer> segments() {
+        if (this.segments == null) {
+            this.segments = new ArrayList<>();
+            for (File f : segmentFiles()) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                    this.segments.add(raf.getChannel().map(
+                            FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return this.segments;
+    }
+
+    /** Return the segment files from the oldest. */
+    private List<File> segmentFiles() {
+        List<File> files = new ArrayList<>();
+        String[] names = this.dir.list((d, name) -> name.startsWith("seg-"));
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                files.add(Utils.join(this.dir, name));
+            }
+        }
+        return files;
+    }
+
+    /** Sort the log into a new segment, merging it with the newest
+     *  segments while they are no more than twice its size. */
+    private void compact() {
+        long[][] merged = sort(ByteBuffer.wrap(Utils.readContents(this.log)));
+        List<File> files = segmentFiles();
+        List<File> absorbed = new ArrayList<>();
+        int next = files.isEmpty() ? 0 : Integer.parseInt(
+                files.get(files.size() - 1).getName().substring(4)) + 1;
+        for (int i = files.size() - 1; i >= 0; i -= 1) {
+            File f = files.get(i);
+            if (f.length() / ENTRY > 2L * merged[0].length) {
+                break;
+            }
+            merged = merge(read(f), merged);
+            absorbed.add(f);
+        }
+        File segment = Utils.join(this.dir, "seg-%08d".formatted(next));
+        File temp = Utils.join(this.dir, "seg.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), Utils.BUFFER_SIZE))) {
+            for (int i = 0; i < merged[0].length; i += 1) {
+                out.writeLong(merged[0][i]);
+                out.writeInt((int) merged[1][i]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // entries are in the new segment before the old copies go
+        for (File f : absorbed) {
+            f.delete();
+        }
+        this.log.delete();
+        this.segments = null;
+    }
+
+    /** Return the keys and positions of entries in BUF sorted by both. */
+    private static long[][] sort(ByteBuffer buf) {
+        int count = buf.limit() / ENTRY;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> {
+            int c = Long.compare(buf.getLong(x * ENTRY), buf.getLong(y * ENTRY));
+            return c != 0 ? c : Integer.compare(buf.getInt(x * ENTRY + 8), buf.getInt(y * ENTRY + 8));
+        });
+        long[][] result = new long[2][count];
+        for (int i = 0; i < count; i += 1) {
+            result[0][i] = buf.getLong(order[i] * ENTRY);
+            result[1][i] = buf.getInt(order[i] * ENTRY + 8);
+        }
+        return result;
+    }
+
+    /** Return the keys and positions of the entries in segment F. */
+    private static long[][] read(File f) {
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(f));
+        int count = buf.limit() / ENTRY;
+        long[][] result = new long[2][count];
+        for (int i = 0; i < count; i += 1) {
+            result[0][i] = buf.getLong(i * ENTRY);
+            result[1][i] = buf.getInt(i * ENTRY + 8);
+        }
+        return result;
+    }
+
+    /** Return the entries of sorted A and B in one sorted array. */
+    private static long[][] merge(long[][] a, long[][] b) {
+        int n = a[0].length + b[0].length;
+        long[][] result = new long[2][n];
+        for (int i = 0, j = 0, k = 0; k < n; k += 1) {
+            boolean takeA = j == b[0].length || i < a[0].length
+                    && (a[0][i] < b[0][j] || a[0][i] == b[0][j] && a[1][i] <= b[1][j]);
+            long[][] src = takeA ? a : b;
+            int at = takeA ? i++ : j++;
+            result[0][k] = src[0][at];
+            result[1][k] = src[1][at];
+        }
+        return result;
+    }
+
+    /** Return the 64-bit FNV-1a hash of TERM of the given KIND. */
+    private static long key(char kind, String term) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ kind) * 0x100000001b3L;
+        for (int i = 0; i < term.length(); i += 1) {
+            h = (h ^ term.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of fetched gitlet objects by their IDs, so that a
+ *  command deserializes each object at most once while it fits.
+ *  The least recently used objects are evicted once the estimated size
+ *  of all cached objects exceeds the capacity.
+ *  Cached objects are shared, callers must copy one before changing it.
+ *
+ *  @author Y. Y. Y
+ */
+class ObjectCache {
+    /** Estimated bytes of an object besides its variable content. */
+    private static final int OVERHEAD = 64;
+    /** Estimated bytes of each entry in a tree. */
+    private static final int ENTRY_SIZE = 128;
+
+    /** Cached objects in access order, each with its estimated size. */
+    private final LinkedHashMap<String, Map.Entry<Dumpable, Long>> objects =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** The maximum estimated bytes of cached objects. */
+    private final long capacity;
+    /** The estimated bytes of cached objects. */
+    private long size;
+    /** Number of lookups answered by this cache. */
+    private long hits;
+    /** Number of lookups missed by this cache. */
+    private long misses;
+
+    /** New an empty cache holding at most CAPACITY estimated bytes. */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Return the cached object with ID, or null if it is not cached. */
+    synchronized Dumpable get(String id) {
+        Map.Entry<Dumpable, Long> e = this.objects.get(id);
+        if (e == null) {
+            this.misses += 1;
+            return null;
+        }
+        this.hits += 1;
+        return e.getKey();
+    }
+
+    /** Cache OBJ by its ID, evicting the least recently used objects
+     *  if needed. An object larger than the capacity is not cached. */
+    synchronized void put(String id, Dumpable obj) {
+        long weight = estimateSize(obj);
+        if (weight > this.capacity) {
+            return;
+        }
+        Map.Entry<Dumpable, Long> old = this.objects.put(id, Map.entry(obj, weight));
+        if (old != null) {
+            this.size -= old.getValue();
+        }
+        this.size += weight;
+        Iterator<Map.Entry<Dumpable, Long>> eldest = this.objects.values().iterator();
+        while (this.size > this.capacity) {
+            this.size -= eldest.next().getValue();
+            eldest.remove();
+        }
+    }
+
+    /** Return the number of lookups answered by this cache. */
+    synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Return the number of lookups missed by this cache. */
+    synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Return a one line summary of this cache. */
+    @Override
+    public synchronized String toString() {
+        return "cache %d objects, %d bytes, %d hits, %d misses".formatted(
+                this.objects.size(), this.size, this.hits, this.misses);
+    }
+
+    /** Return the estimated bytes OBJ takes in memory. */
+    private static long estimateSize(Dumpable obj) {
+        if (obj instanceof Blob) {
+            return OVERHEAD + ((Blob) obj).getBytes().length;
+        } else if (obj instanceof Tree) {
+            return OVERHEAD + (long) ENTRY_SIZE * ((Tree) obj).getMapping().size();
+        } else if (obj instanceof Commit) {
+            return OVERHEAD + ENTRY_SIZE + ((Commit) obj).getMsg().length();
+        }
+        return OVERHEAD;
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Performs a timing test on fetching objects through an ObjectCache of
+ *  several capacities, by walking a history of commits and their trees
+ *  a few times, as merge and log do, and reports the hits and misses
+ *  of each cache.
+ *  Usage: java gitlet.ObjectCacheSpeedTest [number of commits]
+ *
+ *  @author Y. Y. Y
+ */
+public class ObjectCacheSpeedTest {
+    /** Walks of the history run before timing, to let the JIT compile. */
+    private static final int WARM_UP = 3;
+    /** Walks of the history timed for each cache. */
+    private static final int ROUNDS = 5;
+    /** Number of files tracked by each tree. */
+    private static final int FILES = 100;
+    /** Capacities of the tested caches in bytes, the last one is the
+     *  capacity used by Repository. */
+    private static final long[] CAPACITIES = {1L << 20, 4L << 20, 16L << 20, 64L << 20};
+
+    /** Times walking the history with no cache and with caches of
+     *  CAPACITIES. ARGS may hold the number of commits. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        // a history of commits, each with its own tree, in their encoded form
+        Map<String, byte[]> stored = new HashMap<>();
+        List<String> history = new ArrayList<>();
+        String parent = null;
+        for (int i = 0; i < n; i += 1) {
+            BlobTree tree = new BlobTree();
+            for (int j = 0; j < FILES; j += 1) {
+                tree.getMapping().put("file" + j + ".txt", randomId());
+            }
+            String treeId = randomId();
+            stored.put(treeId, Codec.encode(tree));
+            Commit c = new Commit(new Date(), "commit message " + i, parent, treeId);
+            parent = randomId();
+            stored.put(parent, Codec.encode(c));
+            history.add(parent);
+        }
+        for (int i = 0; i < WARM_UP; i += 1) {
+            walk(history, stored, new ObjectCache(0));
+        }
+
+        System.out.printf("%-10s %10s %10s %8s %14s%n",
+                "capacity", "hits", "misses", "hit %", "ms per walk");
+        ObjectCache cache = new ObjectCache(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            walk(history, stored, cache);
+        }
+        report("none", cache, start);
+        for (long capacity : CAPACITIES) {
+            cache = new ObjectCache(capacity);
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i += 1) {
+                walk(history, stored, cache);
+            }
+            report((capacity >> 20) + " MiB", cache, start);
+        }
+        System.out.println(cache);
+    }
+
+    /** Fetch each commit of HISTORY and its tree through CACHE, decoding
+     *  the objects in STORED that are not cached. */
+    private static void walk(List<String> history, Map<String, byte[]> stored,
+                             ObjectCache cache) {
+        for (String id : history) {
+            Commit c = (Commit) fetch(id, stored, cache);
+            fetch(c.getTree(), stored, cache);
+        }
+    }
+
+    /** Return the object with ID from CACHE, or decode it from STORED and
+     *  cache it. */
+    private static Dumpable fetch(String id, Map<String, byte[]> stored, ObjectCache cache) {
+        Dumpable obj = cache.get(id);
+        if (obj == null) {
+            obj = Codec.read(new ByteArrayInputStream(stored.get(id)));
+            cache.put(id, obj);
+        }
+        return obj;
+    }
+
+    /** Print the hits and misses of CACHE named NAME, and the
+     *  milliseconds of one of ROUNDS walks since START. */
+    private static void report(String name, ObjectCache cache, long start) {
+        double millis = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        long lookups = cache.getHits() + cache.getMisses();
+        System.out.printf("%-10s %10d %10d %8.1f %14.1f%n", name, cache.getHits(),
+                cache.getMisses(), 100.0 * cache.getHits() / lookups, millis);
+    }
+
+    /** Return a random full-length SHA-1 value. */
+    private static String randomId() {
+        return Utils.sha1(Double.toString(Math.random()));
+    }
+}
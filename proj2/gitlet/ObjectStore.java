@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** Represent the object database of a gitlet repository.
+ *  An object is either loose, stored in its own file named by its
+ *  SHA-1 value under the objects folder, or packed into one of the
+ *  packs under the objects/pack folder.
+ *
+ *  @author Y. Y. Y
+ */
+class ObjectStore {
+    /** The objects directory. */
+    private final File dir;
+    /** The directory of packs. */
+    private final File packDir;
+    /** Opened packs, loaded at the first lookup. */
+    private List<PackFile> packs;
+
+    /** New an object store over the given objects directory.
+     *
+     * @param objectDir the objects directory of a repository
+     */
+    ObjectStore(File objectDir) {
+        this.dir = objectDir;
+        this.packDir = Utils.join(objectDir, "pack");
+    }
+
+    /** Check if an object exists by its ID. */
+    boolean contains(String id) {
+        if (Utils.join(this.dir, id).isFile()) {
+            return true;
+        }
+        return findPack(id) != null;
+    }
+
+    /** Return the stored bytes of an object, or null if absent.
+     *
+     * @param id full-length uid of an object
+     */
+    byte[] read(String id) {
+        File loose = Utils.join(this.dir, id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        PackFile p = findPack(id);
+        return p == null ? null : p.read(id);
+    }
+
+    /** Return a stream of the plain bytes of an object, inflated as it is
+     *  read, or null if absent. The stream must be closed.
+     *
+     * @param id full-length uid of an object
+     */
+    InputStream open(String id) {
+        File loose = Utils.join(this.dir, id);
+        try {
+            if (loose.isFile()) {
+                return Utils.inflateIfCompressed(new BufferedInputStream(
+                        new FileInputStream(loose), Utils.BUFFER_SIZE));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        PackFile p = findPack(id);
+        return p == null ? null : p.open(id);
+    }
+
+    /** Return the pack containing an object, or null if it is not packed. */
+    private PackFile findPack(String id) {
+        for (PackFile p : packs()) {
+            if (p.contains(id)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** Return a pack with reachability bitmaps, or null if none has. */
+    PackFile bitmapPack() {
+        List<PackFile> all = packs();
+        for (int i = all.size() - 1; i >= 0; i -= 1) {
+            if (all.get(i).getBitmaps() != null) {
+                return all.get(i);
+            }
+        }
+        return null;
+    }
+
+    /** Return all opened packs of this store. */
+    synchronized List<PackFile> packs() {
+        if (this.packs == null) {
+            this.packs = new ArrayList<>();
+            File[] indexes = this.packDir.listFiles((d, name) ->
+                    name.startsWith("pack-") && name.endsWith(".idx"));
+            if (indexes != null) {
+                Arrays.sort(indexes);
+                for (File f : indexes) {
+                    this.packs.add(new PackFile(f));
+                }
+            }
+        }
+        return this.packs;
+    }
+
+    /** Return uids of all loose objects in lexicographic order. */
+    List<String> looseIDs() {
+        List<String> ids = new ArrayList<>();
+        List<String> files = Utils.plainFilenamesIn(this.dir);
+        if (files != null) {
+            for (String name : files) {
+                if (name.length() == Utils.UID_LENGTH) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Return uids of all objects, loose and packed, in lexicographic order. */
+    TreeSet<String> allIDs() {
+        TreeSet<String> ids = new TreeSet<>(looseIDs());
+        for (PackFile p : packs()) {
+            ids.addAll(p.getIDs());
+        }
+        return ids;
+    }
+
+    /** Return the bytes an object takes in this store, 0 if absent.
+     *  A packed delta takes its own bytes, not those of its base.
+     *
+     * @param id full-length uid of an object
+     */
+    long storedSize(String id) {
+        File loose = Utils.join(this.dir, id);
+        if (loose.isFile()) {
+            return loose.length();
+        }
+        PackFile p = findPack(id);
+        return p == null ? 0 : p.entrySize(id);
+    }
+
+    /** Return the bytes taken by all objects of this store. */
+    long diskUsage() {
+        long total = 0;
+        for (String id : looseIDs()) {
+            total += Utils.join(this.dir, id).length();
+        }
+        for (PackFile p : packs()) {
+            total += p.diskUsage();
+        }
+        return total;
+    }
+
+    /** Complete a unique prefix of an object uid to the full uid.
+     *  A full-length uid is checked directly, packed uids are found by
+     *  binary search in the pack indexes, and only loose objects need a
+     *  scan of names in the objects directory.
+     *
+     * @param prefix a full-length or short uid
+     * @return the full-length uid, or null if not found or ambiguous
+     */
+    String resolve(String prefix) {
+        if (prefix == null || prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+                || !prefix.chars().allMatch(c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+            return null;
+        }
+        if (prefix.length() == Utils.UID_LENGTH) {
+            return contains(prefix) ? prefix : null;
+        }
+        TreeSet<String> found = new TreeSet<>();
+        for (PackFile p : packs()) {
+            found.addAll(p.findPrefix(prefix, 2));
+            if (found.size() > 1) {
+                return null;
+            }
+        }
+        String[] loose = this.dir.list((d, name) ->
+                name.length() == Utils.UID_LENGTH && name.startsWith(prefix));
+        if (loose != null) {
+            found.addAll(Arrays.asList(loose));
+        }
+        return found.size() == 1 ? found.first() : null;
+    }
+
+    /** Copy objects of another store into a new pack of this store, with
+     *  blobs stored as deltas where it saves space.
+     *
+     * @param ids uids of objects to copy, none of them in this store
+     * @param source the store holding the objects
+     */
+    void receive(Collection<String> ids, ObjectStore source) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        this.packDir.mkdir();
+        packs().add(PackFile.write(this.packDir, ids, source,
+                PackFile.DEFAULT_WINDOW, PackFile.DEFAULT_DEPTH));
+    }
+
+    /** Keep only the LIVE objects, moved into one new pack, and remove
+     *  every other object, loose or packed.
+     *
+     * @param live uids of objects to keep, all of them in this store
+     * @param window number of previous blobs tried as delta bases
+     * @param depth maximum length of a chain of deltas
+     */
+    void retain(Collection<String> live, int window, int depth) {
+        List<String> loose = looseIDs();
+        List<PackFile> replaced = new ArrayList<>(packs());
+        PackFile pack = null;
+        if (!live.isEmpty()) {
+            this.packDir.mkdir();
+            pack = PackFile.write(this.packDir, live, this, window, depth);
+        }
+        // every old object is either in the new pack or unreachable
+        for (PackFile p : replaced) {
+            if (pack == null || !p.getPack().equals(pack.getPack())) {
+                p.delete();
+            }
+        }
+        packs().removeAll(replaced);
+        if (pack != null) {
+            packs().add(pack);
+        }
+        for (String id : loose) {
+            Utils.join(this.dir, id).delete();
+        }
+    }
+
+    /** Move all loose objects into a new pack, or with ALL every object
+     *  of this store, so that versions of a file from different packs may
+     *  be stored as deltas of each other.
+     *
+     * @param all if the existing packs are merged into the new pack
+     * @param window number of previous blobs tried as delta bases
+     * @param depth maximum length of a chain of deltas
+     * @return number of objects packed
+     */
+    int repack(boolean all, int window, int depth) {
+        List<String> loose = looseIDs();
+        List<PackFile> replaced = all ? new ArrayList<>(packs()) : List.of();
+        TreeSet<String> fresh = new TreeSet<>();
+        for (String id : loose) {
+            if (all || findPack(id) == null) {
+                fresh.add(id);
+            }
+        }
+        for (PackFile p : replaced) {
+            fresh.addAll(p.getIDs());
+        }
+        if (!fresh.isEmpty()) {
+            this.packDir.mkdir();
+            PackFile pack = PackFile.write(this.packDir, fresh, this, window, depth);
+            // replaced packs are redundant once the new pack is in place
+            for (PackFile p : replaced) {
+                if (!p.getPack().equals(pack.getPack())) {
+                    p.delete();
+                }
+            }
+            packs().removeAll(replaced);
+            packs().add(pack);
+        }
+        // loose copies are redundant once the pack is in place
+        for (String id : loose) {
+            Utils.join(this.dir, id).delete();
+        }
+        return fresh.size();
+    }
+}
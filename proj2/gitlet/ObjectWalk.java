@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** Collect the objects reachable from commits: the commits, their tree
+ *  roots, subtrees, blobs and chunks of large blobs. Objects of a pack are kept as a bitmap over
+ *  the pack, others as a set of uids. A commit with a reachability bitmap
+ *  adds the bitmap at once, so only the commits made after the bitmaps
+ *  are walked and only their trees are read.
+ *
+ *  @author Y. Y. Y
+ */
+class ObjectWalk {
+    /** The pack the bitmaps are over, null if there is none. */
+    private final PackFile pack;
+    /** Return the reachability bitmap of a commit, or null. */
+    private final Function<String, Bitmap> bitmaps;
+    /** Return a stored object by its uid, or null if it is absent. */
+    private final Function<String, Dumpable> fetch;
+    /** Return the uids of the chunks of a blob, empty if it has none. */
+    private final Function<String, List<String>> chunks;
+    /** Packed objects found. */
+    private final Bitmap packed;
+    /** Objects found outside the pack in order. */
+    private final Set<String> loose = new LinkedHashSet<>();
+    /** If no commit or tree reachable from the commits is absent. */
+    private boolean complete = true;
+
+    /** New an empty walk.
+     *
+     * @param pack the pack of the bitmaps, may be null
+     * @param bitmaps the reachability bitmaps of commits over PACK
+     * @param fetch the lookup of stored objects
+     * @param chunks the lookup of the chunks of a blob
+     */
+    ObjectWalk(PackFile pack, Function<String, Bitmap> bitmaps,
+               Function<String, Dumpable> fetch, Function<String, List<String>> chunks) {
+        this.pack = pack;
+        this.bitmaps = bitmaps;
+        this.fetch = fetch;
+        this.chunks = chunks;
+        this.packed = new Bitmap(pack == null ? 0 : pack.size());
+    }
+
+    /** Add the objects reachable from COMMITS. Objects which SKIP accepts
+     *  are left out with everything they reach, so SKIP must accept all
+     *  objects reachable from any object it accepts, like the objects of
+     *  another repository.
+     *
+     * @param commits uids of commits
+     * @param skip the objects known to be unwanted
+     */
+    void add(Collection<String> commits, Predicate<String> skip) {
+        add(commits, null, skip);
+    }
+
+    /** Add the objects reachable from COMMITS and not from those of
+     *  EXCLUDED. Objects which SKIP accepts are left out as in add.
+     *
+     * @param commits uids of commits
+     * @param excluded a walk over the same pack
+     * @param skip the objects known to be unwanted
+     */
+    void add(Collection<String> commits, ObjectWalk excluded, Predicate<String> skip) {
+        Predicate<String> unwanted = excluded == null ? skip
+                : skip.or(excluded::contains);
+        Deque<String> pending = new ArrayDeque<>(commits);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!isValid(id) || contains(id) || unwanted.test(id)) {
+                continue;
+            }
+            Bitmap b = this.bitmaps.apply(id);
+            if (b != null) {
+                if (excluded == null) {
+                    this.packed.or(b);
+                } else {
+                    Bitmap wanted = b.copy();
+                    wanted.andNot(excluded.packed);
+                    this.packed.or(wanted);
+                }
+                continue;
+            }
+            Commit c = (Commit) found(id);
+            if (c != null) {
+                addTree(c.getTree(), unwanted);
+                pending.push(c.getParent());
+                if (c.getRelative() != null) {
+                    pending.push(c.getRelative());
+                }
+            }
+        }
+    }
+
+    /** Add BLOBS which no commit may reach yet, like staged files. */
+    void addBlobs(Collection<String> blobs) {
+        for (String blob : blobs) {
+            if (isValid(blob) && !contains(blob)) {
+                markBlob(blob, id -> false);
+            }
+        }
+    }
+
+    /** Add a tree root with its subtrees and blobs, unless it is found. */
+    private void addTree(String id, Predicate<String> unwanted) {
+        if (!isValid(id) || contains(id) || unwanted.test(id)) {
+            return;
+        }
+        BlobTree root = (BlobTree) found(id);
+        if (root == null) {
+            return;
+        }
+        List<BlobTree> trees = new ArrayList<>();
+        if (root.getSubtrees() == null) {
+            trees.add(root);
+        } else {
+            for (String subtree : root.getSubtrees().values()) {
+                if (!contains(subtree) && !unwanted.test(subtree)) {
+                    BlobTree t = (BlobTree) found(subtree);
+                    if (t != null) {
+                        trees.add(t);
+                    }
+                }
+            }
+        }
+        for (BlobTree t : trees) {
+            for (String blob : t.getMapping().values()) {
+                if (isValid(blob) && !contains(blob) && !unwanted.test(blob)) {
+                    markBlob(blob, unwanted);
+                }
+            }
+        }
+    }
+
+    /** Mark a blob as found with its chunks. A chunk may be shared by
+     *  other blobs, so each is checked on its own. */
+    private void markBlob(String blob, Predicate<String> unwanted) {
+        mark(blob);
+        for (String chunk : this.chunks.apply(blob)) {
+            if (!contains(chunk) && !unwanted.test(chunk)) {
+                mark(chunk);
+            }
+        }
+    }
+
+    /** Mark an object as found and return it, or null if it is absent. */
+    private Dumpable found(String id) {
+        mark(id);
+        Dumpable obj = this.fetch.apply(id);
+        this.complete &= obj != null;
+        return obj;
+    }
+
+    /** Mark an object as found. */
+    private void mark(String id) {
+        int i = this.pack == null ? -1 : this.pack.find(id);
+        if (i >= 0) {
+            this.packed.set(i);
+        } else {
+            this.loose.add(id);
+        }
+    }
+
+    /** Check if an object is found by this walk. */
+    boolean contains(String id) {
+        int i = this.pack == null ? -1 : this.pack.find(id);
+        return i >= 0 ? this.packed.get(i) : this.loose.contains(id);
+    }
+
+    /** Check if ID names an object rather than no file or a removal. */
+    private static boolean isValid(String id) {
+        return id != null && !id.equals("") && !id.equals("deleted");
+    }
+
+    /** Check if every commit and tree found is stored, so nothing they
+     *  reach was missed. Blobs are not read, only marked. */
+    boolean isComplete() {
+        return this.complete;
+    }
+
+    /** Return the packed objects found. */
+    Bitmap getPacked() {
+        return this.packed;
+    }
+
+    /** Return the objects found outside the pack. */
+    Set<String> getLoose() {
+        return this.loose;
+    }
+
+    /** Return uids of all objects found, packed ones first. */
+    List<String> getIDs() {
+        List<String> ids = new ArrayList<>(this.packed.cardinality() + this.loose.size());
+        this.packed.forEach(i -> ids.add(this.pack.getID(i)));
+        ids.addAll(this.loose);
+        return ids;
+    }
+}
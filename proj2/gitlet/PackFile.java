@@ -0,0 +1,593 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Represent a gitlet pack, which keeps many stored objects in one
+ *  append-only file instead of one file per object.
+ *  A pack is a pair of files sharing the same name:
+ *  *********************** Layout ***************************
+ *  pack-<sha1>.pack   "PACK" | version | count | entry...
+ *                     entry = WHOLE | length | stored bytes
+ *                           | DELTA | length | raw SHA-1 of base
+ *                                   | compressed delta from the base
+ *  pack-<sha1>.idx    "PIDX" | version | fanout[256]
+ *                     | count sorted raw SHA-1 values
+ *                     | count offsets into the .pack file
+ *  The index is memory-mapped and searched with binary search,
+ *  the fanout table narrows the search to ids with the same first byte.
+ *  A blob may be stored as a delta from another blob in the same pack,
+ *  chosen among the previous blobs in order of file name and size.
+ *  A pack written by a full repack also has a pack-<sha1>.bitmap file
+ *  of reachability bitmaps, see BitmapIndex.
+ *
+ *  @author Y. Y. Y
+ */
+class PackFile {
+    /** Entry type of an object stored as it is. */
+    static final int WHOLE = 1;
+    /** Entry type of an object stored as a delta from a base object. */
+    static final int DELTA = 2;
+    /** Number of previous blobs tried as delta bases by default. */
+    static final int DEFAULT_WINDOW = 10;
+    /** Maximum length of a chain of deltas by default. */
+    static final int DEFAULT_DEPTH = 50;
+    /** Objects smaller than this are not worth a delta. */
+    private static final int MIN_DELTA_SIZE = 64;
+    /** Number of resolved delta bases kept for later reads. */
+    private static final int BASE_CACHE_SIZE = 16;
+
+    /** Magic header of a .pack file. */
+    private static final byte[] PACK_MAGIC = {'P', 'A', 'C', 'K'};
+    /** Magic header of a .idx file. */
+    private static final byte[] INDEX_MAGIC = {'P', 'I', 'D', 'X'};
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+    /** Number of slots in the fanout table, one for each first byte. */
+    private static final int FANOUT = 256;
+    /** Length of a raw SHA-1 value. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+    /** Length of the .idx header before the fanout table. */
+    private static final int INDEX_HEADER = 8;
+
+    /** The .pack file. */
+    private final File pack;
+    /** The .idx file. */
+    private final File indexFile;
+    /** Mapped content of the .idx file. */
+    private final MappedByteBuffer index;
+    /** Number of objects in this pack. */
+    private final int count;
+    /** Reachability bitmaps of this pack, loaded at the first use. */
+    private BitmapIndex bitmaps;
+    /** Channel of the .pack file, opened at the first read. */
+    private FileChannel channel;
+    /** Plain bytes of recently resolved entries by position, so reading
+     *  the versions along a delta chain does not resolve it again. */
+    private final Map<Long, byte[]> bases = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > BASE_CACHE_SIZE;
+        }
+    };
+
+    /** Open an existing pack by its index file.
+     *
+     * @param indexFile the .idx file of a pack
+     */
+    PackFile(File indexFile) {
+        String name = indexFile.getName();
+        this.indexFile = indexFile;
+        this.pack = Utils.join(indexFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel ch = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            this.index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (int i = 0; i < INDEX_MAGIC.length; i += 1) {
+            if (this.index.get(i) != INDEX_MAGIC[i]) {
+                throw new IllegalArgumentException("bad pack index " + name);
+            }
+        }
+        this.count = this.index.getInt(INDEX_HEADER + (FANOUT - 1) * 4);
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return this.count;
+    }
+
+    /** Return the .pack file of this pack. */
+    File getPack() {
+        return this.pack;
+    }
+
+    /** Return the .bitmap file of this pack, which may not exist. */
+    private File bitmapFile() {
+        String name = this.pack.getName();
+        return Utils.join(this.pack.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".bitmap");
+    }
+
+    /** Return the reachability bitmaps of this pack, or null if it has none. */
+    synchronized BitmapIndex getBitmaps() {
+        if (this.bitmaps == null && bitmapFile().exists()) {
+            this.bitmaps = new BitmapIndex(bitmapFile());
+        }
+        return this.bitmaps;
+    }
+
+    /** Store the reachability bitmaps of commits for this pack, replacing
+     *  any stored before.
+     *
+     * @param commitBitmaps <commit uid, bitmap> pairs over this pack
+     */
+    synchronized void writeBitmaps(Map<String, Bitmap> commitBitmaps) {
+        BitmapIndex.write(bitmapFile(), commitBitmaps);
+        this.bitmaps = null;
+    }
+
+    /** Close and remove the files of this pack. */
+    synchronized void delete() {
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+                this.channel = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // the .idx goes first, so a pack is never visible without its data
+        bitmapFile().delete();
+        this.indexFile.delete();
+        this.pack.delete();
+    }
+
+    /** Return the ID of the I-th object in sorted order. */
+    String getID(int i) {
+        byte[] raw = new byte[RAW_LENGTH];
+        this.index.get(idPosition(i), raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Return all IDs in this pack in sorted order. */
+    List<String> getIDs() {
+        List<String> ids = new ArrayList<>(this.count);
+        for (int i = 0; i < this.count; i += 1) {
+            ids.add(getID(i));
+        }
+        return ids;
+    }
+
+    /** Check if an object exists in this pack by its ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Return the position of ID in sorted order, or -1 if absent.
+     *
+     * @param id full-length uid of an object
+     */
+    int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] raw = Utils.fromHex(id);
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return IDs in this pack starting with PREFIX in sorted order.
+     *
+     * @param prefix a non-empty hexadecimal prefix of uids
+     * @param limit the maximum number of IDs to return
+     */
+    List<String> findPrefix(String prefix, int limit) {
+        byte[] low = Utils.fromHex(pad(prefix, '0'));
+        byte[] high = Utils.fromHex(pad(prefix, 'f'));
+        int lo = (low[0] & 0xff) == 0 ? 0 : fanout((low[0] & 0xff) - 1);
+        int hi = fanout(high[0] & 0xff);
+        // binary search the first id not less than the lowest match
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lo; i < this.count && result.size() < limit; i += 1) {
+            if (compareAt(i, high) > 0) {
+                break;
+            }
+            result.add(getID(i));
+        }
+        return result;
+    }
+
+    /** Return the bytes an object takes in the .pack file, 0 if absent.
+     *  Entries are written in sorted order, so an entry ends where the
+     *  next one starts.
+     *
+     * @param id full-length uid of an object
+     */
+    long entrySize(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return 0;
+        }
+        long end = i + 1 < this.count ? offset(i + 1) : this.pack.length();
+        return end - offset(i);
+    }
+
+    /** Return the bytes taken by the files of this pack. */
+    long diskUsage() {
+        return this.pack.length() + this.indexFile.length() + bitmapFile().length();
+    }
+
+    /** Return PREFIX padded to a full-length uid with the digit C. */
+    private static String pad(String prefix, char c) {
+        StringBuilder full = new StringBuilder(prefix);
+        while (full.length() < Utils.UID_LENGTH) {
+            full.append(c);
+        }
+        return full.toString();
+    }
+
+    /** Return the stored bytes of an object, or null if absent.
+     *  An object stored as a delta is returned as plain encoded bytes.
+     *
+     * @param id full-length uid of an object
+     */
+    byte[] read(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        return readAt(offset(i));
+    }
+
+    /** Return a stream of the plain bytes of an object, or null if absent.
+     *  A whole entry is read from the .pack file and inflated as the
+     *  stream is read, a delta is resolved in memory first.
+     *
+     * @param id full-length uid of an object
+     */
+    InputStream open(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        long position = offset(i);
+        try {
+            ByteBuffer head = ByteBuffer.allocate(5);
+            readFully(head, position);
+            head.flip();
+            if (head.get() != WHOLE) {
+                return new ByteArrayInputStream(Utils.inflate(readAt(position)));
+            }
+            InputStream entry = new BufferedInputStream(
+                    new EntryStream(position + 5, head.getInt()), Utils.BUFFER_SIZE);
+            return Utils.inflateIfCompressed(entry);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the stored bytes of the entry at POSITION in the .pack file,
+     *  resolving a delta against its base. */
+    private byte[] readAt(long position) {
+        try {
+            ByteBuffer head = ByteBuffer.allocate(5);
+            readFully(head, position);
+            head.flip();
+            int type = head.get();
+            ByteBuffer body = ByteBuffer.allocate(head.getInt());
+            readFully(body, position + 5);
+            if (type == WHOLE) {
+                return body.array();
+            } else if (type != DELTA) {
+                throw new IllegalArgumentException("unknown pack entry type " + type);
+            }
+            byte[] raw = new byte[RAW_LENGTH];
+            body.flip();
+            body.get(raw);
+            int base = find(Utils.toHex(raw));
+            if (base < 0) {
+                throw new IllegalArgumentException("missing delta base " + Utils.toHex(raw));
+            }
+            byte[] delta = Utils.inflate(Arrays.copyOfRange(body.array(), RAW_LENGTH, body.limit()));
+            return Delta.apply(readBase(offset(base)), delta);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the plain bytes of the delta base at POSITION. */
+    private byte[] readBase(long position) {
+        synchronized (this.bases) {
+            byte[] plain = this.bases.get(position);
+            if (plain != null) {
+                return plain;
+            }
+        }
+        byte[] plain = Utils.inflate(readAt(position));
+        synchronized (this.bases) {
+            this.bases.put(position, plain);
+        }
+        return plain;
+    }
+
+    /** Fill BUF from the .pack file starting at POSITION. */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) {
+                throw new IOException("truncated pack " + this.pack.getName());
+            }
+            position += n;
+        }
+    }
+
+    /** Return the opened channel of the .pack file. */
+    private synchronized FileChannel channel() throws IOException {
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.pack.toPath(), StandardOpenOption.READ);
+        }
+        return this.channel;
+    }
+
+    /** Return the number of ids whose first byte is at most FIRST. */
+    private int fanout(int first) {
+        return this.index.getInt(INDEX_HEADER + first * 4);
+    }
+
+    /** Return the position of the I-th raw id in the index. */
+    private int idPosition(int i) {
+        return INDEX_HEADER + FANOUT * 4 + i * RAW_LENGTH;
+    }
+
+    /** Return the offset of the I-th object in the .pack file. */
+    private long offset(int i) {
+        return this.index.getLong(INDEX_HEADER + FANOUT * 4
+                + this.count * RAW_LENGTH + i * 8);
+    }
+
+    /** Compare the I-th raw id in the index with RAW as unsigned bytes. */
+    private int compareAt(int i, byte[] raw) {
+        int base = idPosition(i);
+        for (int k = 0; k < RAW_LENGTH; k += 1) {
+            int cmp = (this.index.get(base + k) & 0xff) - (raw[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Write objects into a new pack under DIR.
+     *  The .idx file is renamed into place after the .pack file, so
+     *  a pack is never visible before it is complete.
+     *
+     * @param dir the pack directory
+     * @param ids uids of objects to pack
+     * @param source the object store to read objects from
+     * @param window number of previous blobs tried as delta bases
+     * @param depth maximum length of a chain of deltas
+     * @return the new pack
+     */
+    static PackFile write(File dir, Collection<String> ids, ObjectStore source,
+                          int window, int depth) {
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        Map<String, byte[]> deltas = window > 0 && depth > 0
+                ? findDeltas(sorted, source, window, depth) : Map.of();
+        String name = "pack-" + Utils.sha1(String.join("", sorted));
+        File packFile = Utils.join(dir, name + ".pack");
+        File indexFile = Utils.join(dir, name + ".idx");
+        File tmpPack = Utils.join(dir, "tmp-" + name + ".pack");
+        File tmpIndex = Utils.join(dir, "tmp-" + name + ".idx");
+        long[] offsets = new long[sorted.size()];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpPack.toPath())))) {
+                out.write(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sorted.size());
+                long position = PACK_MAGIC.length + 8;
+                for (int i = 0; i < sorted.size(); i += 1) {
+                    // a delta entry holds the raw id of its base first
+                    byte[] delta = deltas.get(sorted.get(i));
+                    byte[] content = delta != null ? delta : source.read(sorted.get(i));
+                    if (content == null) {
+                        throw new IllegalArgumentException("missing object " + sorted.get(i));
+                    } else if (delta == null && Codec.typeOf(content) >= 0) {
+                        // resolved from a delta of another pack
+                        content = Utils.deflate(content);
+                    }
+                    offsets[i] = position;
+                    out.writeByte(delta != null ? DELTA : WHOLE);
+                    out.writeInt(content.length);
+                    out.write(content);
+                    position += 5 + content.length;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpIndex.toPath())))) {
+                out.write(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                int[] fanout = new int[FANOUT];
+                for (String id : sorted) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int n : fanout) {
+                    total += n;
+                    out.writeInt(total);
+                }
+                for (String id : sorted) {
+                    out.write(Utils.fromHex(id));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmpPack.delete();
+            tmpIndex.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new PackFile(indexFile);
+    }
+
+    /** Return the delta entries of blobs worth storing as deltas, each the
+     *  raw id of its base followed by the compressed delta. Blobs are
+     *  sorted by file name and then size from the largest, so versions of
+     *  a file meet in a sliding window of the previous WINDOW blobs, and
+     *  only plain bytes of the window are held in memory.
+     */
+    private static Map<String, byte[]> findDeltas(List<String> ids, ObjectStore source,
+                                                  int window, int depth) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (String id : ids) {
+            byte[] plain = Utils.inflate(source.read(id));
+            if (Codec.typeOf(plain) == Codec.BLOB && plain.length >= MIN_DELTA_SIZE) {
+                Blob b = Utils.deserialize(plain, Blob.class);
+                candidates.add(new Candidate(id, b.getFile(), plain.length));
+            }
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> String.valueOf(c.file))
+                .thenComparing(c -> -c.size));
+
+        Map<String, byte[]> deltas = new HashMap<>();
+        ArrayDeque<Candidate> recent = new ArrayDeque<>();
+        for (Candidate target : candidates) {
+            byte[] stored = source.read(target.id);
+            target.plain = Utils.inflate(stored);
+            byte[] best = null;
+            Candidate bestBase = null;
+            for (Candidate base : recent) {
+                if (base.depth >= depth) {
+                    continue;
+                }
+                byte[] delta = Delta.create(base.plain, target.plain);
+                if (delta.length < target.plain.length / 2
+                        && (best == null || delta.length < best.length)) {
+                    best = delta;
+                    bestBase = base;
+                }
+            }
+            if (best != null) {
+                byte[] compressed = Utils.deflate(best);
+                if (RAW_LENGTH + compressed.length < stored.length) {
+                    byte[] entry = Arrays.copyOf(Utils.fromHex(bestBase.id),
+                            RAW_LENGTH + compressed.length);
+                    System.arraycopy(compressed, 0, entry, RAW_LENGTH, compressed.length);
+                    deltas.put(target.id, entry);
+                    target.depth = bestBase.depth + 1;
+                }
+            }
+            recent.addFirst(target);
+            if (recent.size() > window) {
+                recent.removeLast().plain = null;
+            }
+        }
+        return deltas;
+    }
+
+    /** A stream of the bytes of an entry in the .pack file, read at
+     *  their positions so streams of other entries may be open too. */
+    private class EntryStream extends InputStream {
+        /** Position of the next byte in the .pack file. */
+        private long position;
+        /** Number of bytes left in the entry. */
+        private long remaining;
+
+        /** New a stream of LENGTH bytes at POSITION. */
+        EntryStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, this.remaining));
+            int n = channel().read(buf, this.position);
+            if (n < 0) {
+                throw new IOException("truncated pack " + pack.getName());
+            }
+            this.position += n;
+            this.remaining -= n;
+            return n;
+        }
+    }
+
+    /** A blob which may be stored as a delta. */
+    private static class Candidate {
+        /** The uid of the blob. */
+        private final String id;
+        /** The tracked file of the blob. */
+        private final String file;
+        /** Length of the plain bytes of the blob. */
+        private final int size;
+        /** Plain bytes of the blob while it is in the window. */
+        private byte[] plain;
+        /** Length of the chain of deltas to rebuild the blob. */
+        private int depth;
+
+        /** New a candidate of a blob. */
+        Candidate(String id, String file, int size) {
+            this.id = id;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
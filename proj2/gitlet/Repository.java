@@ -1,9 +1,27 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -12,6 +30,9 @@ import static gitlet.Utils.*;
  *  @author Y. Y. Y
  */
 public class Repository implements Serializable {
+    /** Fixed to the value of the first release, so that existing
+     *  repositories stay readable as this class changes. */
+    private static final long serialVersionUID = -231107081988567805L;
 
     /* DIRECTORIES */
 
@@ -30,7 +51,7 @@ public class Repository implements Serializable {
     private final File REPO;
     /** The master branch. */
     private final File MASTER;
-    /** Collect global commits. */
+    /** Global commits of a repository before the journal. */
     private final File GLOBAL;
     /** The file stores the directory of current branch */
     private final File HEAD;
@@ -43,6 +64,39 @@ public class Repository implements Serializable {
     /** The remote Repository. */
     private Repository ORIGIN;
 
+    /** Version of the repository format written by this gitlet.
+     *  0 is a legacy repository without a format file, whose objects are
+     *  plain serialized; since 1 stored objects are deflate-compressed;
+     *  since 2 gitlet objects are written in the binary format of Codec;
+     *  since 3 large blob trees are split into subtrees; since 4 global
+     *  commits are kept in a journal instead of the global file; since 5
+     *  packs may store blobs as deltas; since 6 large blobs may be stored
+     *  as chunks. */
+    static final int FORMAT_VERSION = 6;
+
+    /* CACHES */
+    /** Loose and packed objects of this repository. */
+    private transient ObjectStore objects;
+    /** Parents and generation numbers of known commits. */
+    private transient CommitGraph graph;
+    /** Every commit made in this repository in order. */
+    private transient Journal journal;
+    /** Journal positions of commits by their messages and words. */
+    private transient MessageIndex messageIndex;
+    /** Objects fetched by this command. */
+    private transient ObjectCache cache;
+    /** The staging area, read at the first use. */
+    private transient Stage stagingArea;
+    /** The maximum estimated bytes of cached objects. */
+    private static final long CACHE_CAPACITY = 64L << 20;
+    /** Fewer files than this are hashed and stored in the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 16;
+    /** Threads writing files on checkout, which waits on I/O more than
+     *  on the processors. */
+    private static final int CHECKOUT_THREADS = 8;
+    /** Commits of every this many generations get a reachability bitmap. */
+    private static final int BITMAP_INTERVAL = 100;
+
 
     /*  Visualization of a gitlet repository
     .gitlet (top folder)
@@ -58,12 +112,22 @@ public class Repository implements Serializable {
     |  + 9ee02 (blob, content = "gitlet version 1")
     |  |
     |  + 5840f (BlobTree, set = {"v1.txt: 9ee02"})
+    |  |
+    |  + pack (folder)
+    |       |
+    |       + pack-3f1a2.pack (objects moved by repack or gc, or received by push and fetch)
+    |       |
+    |       + pack-3f1a2.idx (sorted offsets into pack-3f1a2.pack)
+    |       |
+    |       + pack-3f1a2.bitmap (objects reachable from some commits, by repack -a or gc)
     |
     +- HEAD (file, contents = "refs/master")
     |
+    +- format (file, contents = repository format version)
+    |
     +- refs (folder)
     |  |
-    |  + master (CommitTree, map = {8b0d5: "init commit"; bc04f: "add v1.txt"})
+    |  + master (CommitTree, map = {bc04f: "add v1.txt"}, only the head commit)
     |  |
     |  + remotes (folder)
     |       |
@@ -71,7 +135,15 @@ public class Repository implements Serializable {
     |
     +- index (Stage)
     |
-    +- global (CommitTree, map = {8b0d5: "init commit"; bc04f: "add v1.txt"})
+    +- journal (file, ID and message position of every commit in order)
+    |
+    +- messages (file, messages of every commit in order)
+    |
+    +- message-index (folder, journal positions by message and word)
+    |
+    +- commit-graph (file, parents and generation of each commit)
+    |
+    +- daemon.sock (socket of a running `gitlet daemon`)
  */
     private Repository() {
         CWD = new File(System.getProperty("user.dir"));
@@ -118,39 +190,132 @@ public class Repository implements Serializable {
     public void update(Commit c) {
         // Store the commit
         save(c);
-        // add to current branch
-        CommitTree current = fetchCurrentBranch();
-        current.add(c);
-        saveBranch(current, readContentsAsString(HEAD).split("/")[1]);
-        // enrich the global commit zone
-        CommitTree global = readObject(GLOBAL, CommitTree.class);
-        global.add(c);
-        writeObject(GLOBAL, global);
+        graphIndex(c.getID());
+        // move the current branch to it, a branch keeps only its head
+        // since the commit graph and the journal hold the history
+        saveBranch(new CommitTree(c), readContentsAsString(HEAD).split("/")[1]);
+        // record the commit in the global journal and index its message
+        journal().append(c.getID(), c.getMsg());
+        messageIndex();
     }
 
-    /** Adds an input file to the staging area, Staging an already-staged
+    /** Adds input files to the staging area, Staging an already-staged
      *  file overwrites the previous entry in the staging area with the
-     *  new contents.
+     *  new contents. A path is a file name, "." for every file in the
+     *  working directory, or a glob like "*.txt" matching working files.
+     *  Blobs are hashed and stored in parallel, then the staging area is
+     *  written once.
      *
-     *  @param filename the file adds to the staging area
+     *  @param paths the files add to the staging area
      */
-    public void add(String filename) {
-        // convert input file to blob object and store
-        Blob b = new Blob(checkFile(filename, "File does not exist."));
-        save(b);
-        Stage stage = readObject(STAGE, Stage.class);
-        // put the blob into the stage
+    public void add(String... paths) {
+        List<String> files = expandPaths(paths);
+        Stage stage = fetchStage();
+        // hash and store blobs of all files in parallel
+        Map<String, String> hashed = new TreeMap<>(parallel(files, f -> {
+            String id = stage.cachedID(f, join(CWD, f));
+            return id == null ? Blob.hash(join(CWD, f)) : id;
+        }));
+        // an unchanged file may be tracked by a legacy blob ID
         BlobTree workingTree = fetchTrackedTree(fetchHead());
-        if (workingTree.isContained(filename)
-                && workingTree.getBlobID(filename).equals(b.getID())
-                && !stage.isDeleted(filename)) {
-            // add a tracked and identical file has no effect
-            return;
-        } else {
-            stage.add(b);
+        for (Map.Entry<String, String> e : hashed.entrySet()) {
+            e.setValue(trackedID(e.getValue(), workingTree.getBlobID(e.getKey()),
+                    join(CWD, e.getKey())));
+        }
+        Map<String, String> missing = new TreeMap<>();
+        for (Map.Entry<String, String> e : hashed.entrySet()) {
+            missing.putIfAbsent(e.getValue(), e.getKey());
+        }
+        missing.values().removeIf(f -> objects().contains(hashed.get(f)));
+        parallel(missing.values(), f -> {
+            saveBlob(f, hashed.get(f));
+            return f;
+        });
+        // put the blobs into the stage
+        for (String filename : files) {
+            String id = hashed.get(filename);
+            stage.cache(filename, join(CWD, filename), id);
+            if (workingTree.isContained(filename)
+                    && workingTree.getBlobID(filename).equals(id)
+                    && !stage.isDeleted(filename)) {
+                // add a tracked and identical file has no effect,
+                // but keep the hashed stat for later commands
+                continue;
+            }
+            stage.add(new Blob(filename, id));
         }
         // save the staging area
-        writeObject(STAGE, stage);
+        saveStage(stage);
+    }
+
+    /** Return the working files named by paths of add in order, without
+     *  duplicates. Only plain files in the working directory are tracked,
+     *  so a directory other than the working directory is not accepted.
+     *
+     * @param paths file names, "." or globs
+     */
+    private List<String> expandPaths(String... paths) {
+        LinkedHashSet<String> files = new LinkedHashSet<>();
+        List<String> working = plainFilenamesIn(CWD);
+        for (String path : paths) {
+            if (path.equals(".") || join(CWD, path).equals(CWD)) {
+                files.addAll(working);
+            } else if (join(CWD, path).isFile()) {
+                files.add(path);
+            } else if (path.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                int before = files.size();
+                for (String f : working) {
+                    if (matcher.matches(Paths.get(f))) {
+                        files.add(f);
+                    }
+                }
+                if (files.size() == before) {
+                    exitWithPrint("File does not exist.");
+                }
+            } else {
+                exitWithPrint("File does not exist.");
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /** Apply FUNC to every item on a fork/join pool with a thread for
+     *  each processor.
+     *
+     * @return the result of each item
+     */
+    private static <R> Map<String, R> parallel(Collection<String> items,
+                                              Function<String, R> func) {
+        return parallel(items, Runtime.getRuntime().availableProcessors(), func);
+    }
+
+    /** Apply FUNC to every item on a fork/join pool of THREADS threads.
+     *
+     * @return the result of each item
+     */
+    private static <R> Map<String, R> parallel(Collection<String> items, int threads,
+                                              Function<String, R> func) {
+        if (items.size() < PARALLEL_THRESHOLD) {
+            Map<String, R> results = new HashMap<>();
+            items.forEach(i -> results.put(i, func.apply(i)));
+            return results;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> items.parallelStream().collect(
+                    Collectors.toConcurrentMap(i -> i, func))).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /** Saves a snapshot of tracked files in the current commit and staging area.
@@ -167,24 +332,23 @@ public class Repository implements Serializable {
         // fetch head commit
         Commit parent = fetchHead();
         // check and combine changes in repository
-        Stage stage = readObject(STAGE, Stage.class);
+        Stage stage = fetchStage();
         if (relative == null && !stage.isChanged()) {
             exitWithPrint("No changes added to the commit.");
         }
-        BlobTree tracked = fetchBlobTree(parent.getTree());
+        BlobTree tracked = fetchBlobTree(parent.getTree()).copy();
         tracked.merge(stage);
         // union the tracking files of two commits
         if (relative != null) {
             tracked.merge(fetchBlobTree(fetchCommit(relative).getTree()));
         }
-        // sometimes causes bugs because uid of a blob tree should be generated only once
-        save(tracked);
+        saveBlobTree(tracked);
         // make a commit
         Commit c = new Commit(new Date(), msg, parent.getID(), relative, tracked.getID());
         update(c);
         // The staging area is cleared after a commit
         stage.empty();
-        writeObject(STAGE, stage);
+        saveStage(stage);
         return c;
     }
 
@@ -194,11 +358,11 @@ public class Repository implements Serializable {
      */
     public void remove(String filename) {
         // Check if the file is staged
-        Stage stage = readObject(STAGE, Stage.class);
+        Stage stage = fetchStage();
         if (stage.isContained(filename)) {
-            // if this file is added, unstage and delete it
-            String id = stage.unstage(filename);
-            join(OBJECT_DIR, id).delete();
+            // if this file is added, unstage it; the blob is kept since
+            // other commits may track the same content
+            stage.unstage(filename);
         } else {
             // fetch current tracked blob tree
             Commit current = fetchHead();
@@ -213,43 +377,55 @@ public class Repository implements Serializable {
             }
         }
         // save the staging area
-        writeObject(STAGE, stage);
+        saveStage(stage);
     }
 
     /* Log & Status */
 
-    /** Print out logs from current HEAD to the starting commit of current branch. */
-    public void log() {
+    /** Print out logs from current HEAD to the starting commit of current
+     *  branch, each as soon as its commit is read.
+     *
+     *  @param skip number of newest commits not printed
+     *  @param maxCount the maximum number of commits printed
+     */
+    public void log(long skip, long maxCount) {
         Commit head = fetchHead();
-        System.out.print(verboseLog(head));
+        PrintWriter out = output();
+        CommitGraph g = graph();
+        long n = 0;
+        for (int i = graphIndex(head.getID()); i >= 0 && n - skip < maxCount;
+             i = g.getParent(i), n += 1) {
+            if (n >= skip) {
+                ((Commit) fetch(g.getID(i))).log(out);
+            }
+        }
+        out.flush();
     }
 
-    /** Compose a very verbose log info of all commit info starting from
-     *  the HEAD commit to init commit.
+    /** Print out logs for all commits in the order they are made, each
+     *  as soon as its commit is read.
      *
-     *  @param head the starting commit
-     *  @return collected and ordered commit info
+     *  @param skip number of oldest commits not printed
+     *  @param maxCount the maximum number of commits printed, both
+     *                  counting commits since removed by gc
      */
-    private String verboseLog(Commit head) {
-        StringBuilder log = new StringBuilder();
-        while (head != null) {
-            log.append(head.log());
-            head = (Commit) fetch(head.getParent());
-        }
-        return log.toString();
+    public void globalLog(long skip, long maxCount) {
+        PrintWriter out = output();
+        journal().forEach(skip, maxCount, (id, msg) -> {
+            // a commit removed by gc stays in the journal
+            Commit c = (Commit) fetch(id);
+            if (c != null) {
+                c.log(out);
+            }
+        });
+        out.flush();
     }
 
-    /** Print out logs for all commits. */
-    public void globalLog() {
-        // not write in a good style
-        CommitTree global = (CommitTree) new CommitTree().load(GLOBAL);
-        TreeMap<String, String> mapping = global.getMapping();
-        StringBuilder ids = new StringBuilder();
-        for (Map.Entry<String, String> p : mapping.entrySet()) {
-            Commit c = fetchCommit(p.getKey());
-            ids.append(c.log());
-        }
-        System.out.print(ids);
+    /** Return a buffered writer over the current System.out, which must
+     *  be flushed before returning. */
+    private static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE));
     }
 
     /** Prints out the ids of all commits that have the given
@@ -258,9 +434,53 @@ public class Repository implements Serializable {
      *  @param msg commit message to find
      */
     public void find(String msg) {
-        CommitTree global = readObject(GLOBAL, CommitTree.class);
-        String ids = global.findMsg(msg);
-        if (ids.equals("")) {
+        printFound(messageIndex().findMessage(msg), m -> m.equals(msg));
+    }
+
+    /** Prints out the ids of all commits whose message has all words
+     *  of the query with "--words", or contains the query with
+     *  "--contains", one per line. Words are matched ignoring case.
+     *
+     *  @param option "--words" or "--contains"
+     *  @param query words or text to find
+     */
+    public void find(String option, String query) {
+        switch (option) {
+            case "--words" -> {
+                List<String> words = MessageIndex.words(query);
+                printFound(messageIndex().findWords(words),
+                        m -> MessageIndex.words(m).containsAll(words));
+            }
+            case "--contains" -> {
+                // only whole words of the query narrow down the candidates
+                List<String> words = MessageIndex.innerWords(query);
+                printFound(words.isEmpty() ? null : messageIndex().findWords(words),
+                        m -> m.contains(query));
+            }
+            default -> exitWithPrint("Incorrect operands.");
+        }
+    }
+
+    /** Prints out the ids of commits at the candidate positions in the
+     *  journal whose message passes the check, one per line.
+     *
+     *  @param candidates positions from the message index, null to scan
+     *                    the whole journal
+     *  @param check test on the message of a candidate
+     */
+    private void printFound(long[] candidates, Predicate<String> check) {
+        StringBuilder ids = new StringBuilder();
+        BiConsumer<String, String> action = (id, m) -> {
+            if (check.test(m) && objects().contains(id)) {
+                ids.append(id).append("\n");
+            }
+        };
+        if (candidates == null) {
+            journal().forEach(action);
+        } else {
+            journal().forEach(candidates, action);
+        }
+        if (ids.isEmpty()) {
             exitWithPrint("Found no commit with that message.");
         } else {
             System.out.print(ids);
@@ -272,8 +492,8 @@ public class Repository implements Serializable {
      * addition or removal.
      */
     public void status() {
-        String coverUp = "=== Branches ===\n";
-        String branchPart = "";
+        PrintWriter out = output();
+        out.print("=== Branches ===\n");
         List<String> branchList = new ArrayList<>(plainFilenamesIn(REFS_DIR));
         List<String> remoteList = new ArrayList<>(
                 Objects.requireNonNull(plainFilenamesIn(REMOTE_DIR)));
@@ -286,28 +506,30 @@ public class Repository implements Serializable {
                 }
             }
         }
-        // Compose branch part by inspecting current branch
+        // Print branch part by inspecting current branch, the current one first
         for (String branch: branchList) {
             if (isHead(branch)) {
-                // move current branch to the head and star
-                branchPart = "*%s%n".formatted(branch) + branchPart;
-            } else {
-                branchPart += "%s%n".formatted(branch);
+                out.print("*%s\n".formatted(branch));
+            }
+        }
+        for (String branch: branchList) {
+            if (!isHead(branch)) {
+                out.print("%s\n".formatted(branch));
             }
         }
-        // Compose staged part by inspecting the mapping in stage
-        coverUp += branchPart + "\n=== Staged Files ===\n";
-        Stage stage = readObject(STAGE, Stage.class);
+        // Print staged part by inspecting the mapping in stage
+        out.print("\n=== Staged Files ===\n");
+        Stage stage = fetchStage();
         for (Map.Entry<String, String> p: stage.getMapping().entrySet()) {
-            coverUp += "%s%n".formatted(p.getKey());
+            out.print("%s\n".formatted(p.getKey()));
         }
-        // Compose removed part by inspecting the deleted in stage
-        coverUp += "\n=== Removed Files ===\n";
+        // Print removed part by inspecting the deleted in stage
+        out.print("\n=== Removed Files ===\n");
         for (Map.Entry<String, String> p: stage.getDeleted().entrySet()) {
-            coverUp += "%s%n".formatted(p.getKey());
+            out.print("%s\n".formatted(p.getKey()));
         }
-        // Compose modified part by comparing the sha-1 values
-        coverUp += "\n=== Modifications Not Staged For Commit ===\n";
+        // Print modified part by comparing the sha-1 values
+        out.print("\n=== Modifications Not Staged For Commit ===\n");
         // All working files in current working directory
         List<String> workingFileList = Utils.plainFilenamesIn(CWD);
         BlobTree workingTree = fetchTrackedTree(fetchHead());
@@ -316,27 +538,41 @@ public class Repository implements Serializable {
             // If a file disappears and not staged
             if (!p.getValue().equals("deleted") && !workingFileList.contains(p.getKey())
                     && !stage.getDeleted().containsKey(p.getKey())) {
-                coverUp += "%s (deleted)%n".formatted(p.getKey());
+                out.print("%s (deleted)\n".formatted(p.getKey()));
             }
         }
+        boolean isCacheChanged = stage.retainCached(workingFileList);
         for (String file: workingFileList) {
-            Blob temp = new Blob(file);
+            if (!workingTree.isContained(file)) {
+                continue;
+            }
+            // unchanged files are recognized by the stat cache without reading them
+            String id = stage.cachedID(file, join(CWD, file));
+            if (id == null) {
+                id = trackedID(Blob.hash(join(CWD, file)), workingTree.getBlobID(file),
+                        join(CWD, file));
+                isCacheChanged |= stage.cache(file, join(CWD, file), id);
+            }
             // A modified file must be modified and its former version should be committed or staged
-            if (workingTree.isContained(file) && (workingTree.getBlobID(temp.getFile()) == null
-                    || !workingTree.getBlobID(temp.getFile()).equals(temp.getID()))) {
-                coverUp += "%s (modified)%n".formatted(file);
+            if (workingTree.getBlobID(file) == null
+                    || !workingTree.getBlobID(file).equals(id)) {
+                out.print("%s (modified)\n".formatted(file));
             }
         }
-        // Compose untracked part
-        coverUp += "\n=== Untracked Files ===\n";
+        if (isCacheChanged) {
+            saveStage(stage);
+        }
+        // Print untracked part
+        out.print("\n=== Untracked Files ===\n");
         for (String file: workingFileList) {
             // If a working file is untracked in the current branch
             // and would be overwritten by the checkout
             if (!workingTree.isContained(file)) {
-                coverUp += "%s%n".formatted(file);
+                out.print("%s\n".formatted(file));
             }
         }
-        System.out.println(coverUp);
+        out.print("\n");
+        out.flush();
     }
 
     /* Checkout */
@@ -352,8 +588,7 @@ public class Repository implements Serializable {
         BlobTree tree = fetchBlobTree(head.getTree());
         if (tree.isContained(filename)) {
             // if a file is tracked, rewrite it to CWD
-            Blob b = fetchBlob(tree.getBlobID(filename));
-            write(b, filename);
+            writeBlob(tree.getBlobID(filename), filename);
         } else {
             exitWithPrint("File does not exist in that commit.");
         }
@@ -369,9 +604,8 @@ public class Repository implements Serializable {
         Commit checked = fetchCommit(commitID);
         BlobTree tree = fetchBlobTree(checked.getTree());
         if (tree.isContained(filename)) {
-            Blob b = (Blob) fetch(tree.getBlobID(filename));
-            // write the fetched blob into CWD
-            writeContents(join(CWD, filename), b.getContent());
+            // write the stored blob into CWD
+            writeBlob(tree.getBlobID(filename), filename);
         } else {
             exitWithPrint("File does not exist in that commit.");
         }
@@ -401,7 +635,12 @@ public class Repository implements Serializable {
         writeContents(HEAD, "refs/%s".formatted(branchName));
     }
 
-    /** Check out a commit.
+    /** Check out a commit. The files of the current head and the target
+     *  commit are joined in sorted order, and only files whose blob
+     *  differs are written or removed. A file with the same blob in both
+     *  is rewritten only if its working copy was changed, which the stat
+     *  cache tells without reading it. Files are written and removed on a
+     *  bounded pool, so many changes are checked out with parallel I/O.
      *
      * @param commitId uid of a commit
      * @param changeHead need to reset or not
@@ -410,29 +649,61 @@ public class Repository implements Serializable {
         Commit c = fetchCommit(commitId);
         // check if any file in the working directory is untracked
         checkUntracked();
-        // clear files in CWD
-        List<String> workingFileList = Utils.plainFilenamesIn(CWD);
-        for (String file: workingFileList) {
-            new File(file).delete();
+        Stage stage = fetchStage();
+        Map<String, String> current = fetchBlobTree(fetchHead().getTree()).getMapping();
+        Map<String, String> target = fetchBlobTree(c.getTree()).getMapping();
+        // <filename, blob to write> pairs, null to remove the file
+        Map<String, String> changes = new HashMap<>();
+        Set<String> unchanged = new HashSet<>();
+        Iterator<Map.Entry<String, String>> i = current.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> j = target.entrySet().iterator();
+        Map.Entry<String, String> a = i.hasNext() ? i.next() : null;
+        Map.Entry<String, String> b = j.hasNext() ? j.next() : null;
+        while (a != null || b != null) {
+            int cmp = a == null ? 1 : b == null ? -1 : a.getKey().compareTo(b.getKey());
+            if (cmp < 0) {
+                changes.put(a.getKey(), null);
+            } else if (cmp > 0 || !b.getValue().equals(a.getValue())) {
+                changes.put(b.getKey(), b.getValue().equals("deleted") ? null : b.getValue());
+            } else if (!b.getValue().equals("deleted")) {
+                unchanged.add(b.getKey());
+            }
+            if (cmp <= 0) {
+                a = i.hasNext() ? i.next() : null;
+            }
+            if (cmp >= 0) {
+                b = j.hasNext() ? j.next() : null;
+            }
         }
-        // rewrite all tracked files from target commit into CWD
-        BlobTree tree = fetchBlobTree(c.getTree());
-        for (Map.Entry<String, String> p: tree.getMapping().entrySet()) {
-            String filename = p.getKey();
-            String address = p.getValue();
-            if (address != null && !address.equals("deleted")) {
-                write(fetchBlob(address), filename);
+        // staged files are not in the head, remove them unless checked out
+        for (String file : plainFilenamesIn(CWD)) {
+            if (!target.containsKey(file) && !changes.containsKey(file)) {
+                changes.put(file, null);
             }
         }
+        List<String> paths = new ArrayList<>(changes.keySet());
+        paths.addAll(unchanged);
+        parallel(paths, CHECKOUT_THREADS, f -> {
+            File working = join(CWD, f);
+            if (unchanged.contains(f)) {
+                String address = target.get(f);
+                if (!working.isFile() || !address.equals(stage.cachedID(f, working))
+                        && !address.equals(trackedID(Blob.hash(working), address, working))) {
+                    writeBlob(address, f);
+                }
+            } else if (changes.get(f) == null) {
+                working.delete();
+            } else {
+                writeBlob(changes.get(f), f);
+            }
+            return f;
+        });
         // clear the staging area
-        Stage stage = readObject(STAGE, Stage.class);
         stage.empty();
-        writeObject(STAGE, stage);
+        saveStage(stage);
         // Need to change the current branch head to the checked commit
         if (changeHead) {
-            CommitTree branch = fetchCurrentBranch();
-            branch.setLast(c);
-            writeObject(join(GITLET_DIR, readContentsAsString(HEAD)), branch);
+            writeObject(join(GITLET_DIR, readContentsAsString(HEAD)), new CommitTree(c));
         }
     }
 
@@ -497,7 +768,7 @@ public class Repository implements Serializable {
      */
     public void merge(String branchName) {
         // check if there are uncommitted changes
-        Stage stage = readObject(STAGE, Stage.class);
+        Stage stage = fetchStage();
         if (stage.isChanged()) {
             exitWithPrint("You have uncommitted changes.");
         }
@@ -534,8 +805,12 @@ public class Repository implements Serializable {
         Commit mHead = fetchCommit(fetchCommitTree(branchName).getLast());
         // fetch current head commit
         Commit cHead = fetchHead();
-        // find the lowest common ancestor of two commits
-        Commit ancestor = findLatestAncestor(cHead, mHead, this, this);
+        // find the best common ancestor of two commits
+        int base = findLatestAncestor(graphIndex(cHead.getID()), graphIndex(mHead.getID()));
+        if (base < 0) {
+            exitWithPrint("No commit with that id exists.");
+        }
+        Commit ancestor = fetchCommit(graph().getID(base));
         // if the split point is the current branch
         if (ancestor.getID().equals(cHead.getID())) {
             // checkout the given branch
@@ -551,8 +826,9 @@ public class Repository implements Serializable {
         BlobTree cTree = fetchBlobTree(cHead.getTree());
         BlobTree aTree = fetchBlobTree(ancestor.getTree());
         boolean isConflicted = false;
-        // take head commit in foreign branch as base
-        for (Map.Entry<String, String> p: mTree.getMapping().entrySet()) {
+        // take head commit in foreign branch as base, every case needs
+        // a file to differ between the two heads
+        for (Map.Entry<String, String> p: changedFiles(mTree, cTree).entrySet()) {
             String name = p.getKey();
             String mAddress = p.getValue();
             String cAddress = cTree.getBlobID(name);
@@ -580,55 +856,196 @@ public class Repository implements Serializable {
                     join(CWD, name).delete();
                 } else {
                     // case G: origin | My M | Ur M |
-                    // file differs in three commits
-                    conflict(cTree.getBlobID(name), mAddress, name);
-                    isConflicted = true;
+                    // file differs in three commits, merge it line by line
+                    isConflicted |= conflict(aAddress, cAddress, mAddress, name);
                 }
             }
         }
         return isConflicted;
     }
 
-    /** Find the lowest common ancestor of two commits.
-     *  Require an intersection of two branches.
+    /** Find the best common ancestor of two commits in the commit graph.
+     *  Both commits paint their ancestors over first and second parents,
+     *  and commits are visited by descending generation, so a commit is
+     *  visited after all its children. The first commit painted by both
+     *  has the highest generation of all common ancestors, which is the
+     *  best one even after criss-cross merges, and only the commits
+     *  newer than it are visited.
      *
-     * @param cHead head commit of current working branch
-     * @param mHead head commit of another working branch
-     * @param cRepository repository of current working branch
-     * @param mRepository repository of another working branch
-     * @return their lowest common ancestor
+     * @param cHead position of the head commit of current working branch
+     * @param mHead position of the head commit of another working branch
+     * @return position of their best common ancestor, or -1 if none
      */
-    private static Commit findLatestAncestor(Commit cHead, Commit mHead,
-                                             Repository cRepository, Repository mRepository) {
-        Commit mBack = mHead;
-        Commit cBack = cHead;
-        while (!cBack.getID().equals(mBack.getID())) {
-            // move the older commit to its parent commit
-            if (cBack.getTimeStamp().compareTo(mBack.getTimeStamp()) > 0) {
-                cBack = cRepository.fetchCommit(cBack.getParent());
-            } else {
-                mBack = mRepository.fetchCommit(mBack.getParent());
+    private int findLatestAncestor(int cHead, int mHead) {
+        if (cHead < 0 || mHead < 0) {
+            return -1;
+        }
+        CommitGraph g = graph();
+        // 1 for ancestors of the current head, 2 for those of the other
+        Map<Integer, Integer> paint = new HashMap<>();
+        PriorityQueue<Integer> pending = new PriorityQueue<>(
+                Comparator.comparingInt(g::getGeneration).thenComparingInt(i -> i).reversed());
+        paint.put(cHead, 1);
+        paint.merge(mHead, 2, (x, y) -> x | y);
+        pending.add(cHead);
+        if (mHead != cHead) {
+            pending.add(mHead);
+        }
+        while (!pending.isEmpty()) {
+            int i = pending.poll();
+            int color = paint.get(i);
+            if (color == 3) {
+                return i;
+            }
+            for (int parent : new int[] {g.getParent(i), g.getRelative(i)}) {
+                if (parent >= 0) {
+                    Integer old = paint.put(parent, color | paint.getOrDefault(parent, 0));
+                    if (old == null) {
+                        pending.add(parent);
+                    }
+                }
             }
         }
-        return cBack;
+        return -1;
     }
 
-    /** Adapts the contents of conflicted files. */
-    private void conflict(String a, String b, String name) {
-        Blob current = fetchBlob(a);
-        Blob given = fetchBlob(b);
-        StringBuilder content = new StringBuilder("<<<<<<< HEAD\n");
-        if (current != null) {
-            // treat deleted file as empty
-            content.append(current.getContent());
-        }
-        content.append("=======\n");
-        if (given != null) {
-            content.append(given.getContent());
+    /** Merges the changes of both branches to a file line by line from
+     *  the split point, and stages the result. Only the lines changed on
+     *  both sides are left between conflict markers.
+     *
+     * @param o blob of the split point
+     * @param a blob of the current branch
+     * @param b blob of the given branch
+     * @param name name of the file
+     * @return true if the file has any conflict
+     */
+    private boolean conflict(String o, String a, String b, String name) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        boolean isConflicted;
+        try {
+            isConflicted = Diff3.merge(lines(o), lines(a), lines(b), content);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
         }
-        content.append(">>>>>>>\n");
-        writeContents(join(CWD, name), content.toString());
+        writeContents(join(CWD, name), (Object) content.toByteArray());
         add(name);
+        return isConflicted;
+    }
+
+    /** Returns the lines of a blob, a deleted file is treated as empty. */
+    private Diff.Lines lines(String id) {
+        byte[] content = blobContent(id);
+        return new Diff.Lines(content == null ? new byte[0] : content);
+    }
+
+    /** Returns the content of a blob, or null if there is no such blob. */
+    private byte[] blobContent(String id) {
+        Blob blob = fetchBlob(id);
+        return blob == null ? null : blob.getBytes();
+    }
+
+    /* Diff */
+
+    /** Prints the changes of a file from one blob to another blob or a
+     *  working file as a unified diff. Like files over the big file
+     *  threshold of git, files stored as chunks are told as binary, and
+     *  binary blobs are told by their first bytes, so neither is read
+     *  whole.
+     *
+     * @param name name of the file
+     * @param a the old blob, null if the file is added
+     * @param b the new blob, null if the file is removed or F is given
+     * @param f the working file with the new content, may be null
+     * @param out where the diff is written
+     */
+    private void diffFile(String name, String a, String b, File f, OutputStream out)
+            throws IOException {
+        boolean isBinary = isBinaryBlob(a) || (f == null ? isBinaryBlob(b)
+                : f.length() >= Chunker.THRESHOLD);
+        if (isBinary) {
+            Diff.writeBinary(name, a != null, b != null || f != null, out);
+        } else {
+            Diff.writeUnified(name, blobContent(a), f == null ? blobContent(b)
+                    : readContents(f), out);
+        }
+    }
+
+    /** Checks if a blob is stored as chunks or has binary content, by
+     *  reading only its first bytes. An absent blob is not binary. */
+    private boolean isBinaryBlob(String id) throws IOException {
+        InputStream stored = id == null ? null : objects().open(id);
+        if (stored == null) {
+            return false;
+        }
+        try (stored) {
+            byte[] head = Blob.prefix(stored, Diff.BINARY_PROBE);
+            return head == null || Diff.isBinary(head);
+        }
+    }
+
+    /** Prints the changes of tracked files in the working directory that
+     *  are not staged, as a unified diff. Files unchanged since they were
+     *  hashed are recognized by the stat cache without reading them.
+     */
+    public void diff() {
+        Stage stage = fetchStage();
+        BlobTree tracked = fetchTrackedTree(fetchHead());
+        boolean isCacheChanged = false;
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+        try {
+            for (Map.Entry<String, String> p : tracked.getMapping().entrySet()) {
+                String name = p.getKey();
+                String id = p.getValue();
+                File f = join(CWD, name);
+                if (id.equals("deleted")) {
+                    continue;
+                } else if (!f.isFile()) {
+                    diffFile(name, id, null, null, out);
+                    continue;
+                }
+                String workingId = stage.cachedID(name, f);
+                if (workingId == null) {
+                    workingId = trackedID(Blob.hash(f), id, f);
+                    isCacheChanged |= stage.cache(name, f, workingId);
+                }
+                if (!workingId.equals(id)) {
+                    diffFile(name, id, null, f, out);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        if (isCacheChanged) {
+            saveStage(stage);
+        }
+    }
+
+    /** Prints the changes of files from one commit to another as a
+     *  unified diff. Shared subtrees and files with the same blob in both
+     *  commits are skipped without reading them.
+     *
+     * @param from uid of the old commit
+     * @param to uid of the new commit
+     */
+    public void diff(String from, String to) {
+        BlobTree a = fetchBlobTree(fetchCommit(from).getTree());
+        BlobTree b = fetchBlobTree(fetchCommit(to).getTree());
+        TreeSet<String> names = new TreeSet<>(changedFiles(a, b).keySet());
+        names.addAll(changedFiles(b, a).keySet());
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+        try {
+            for (String name : names) {
+                String aId = a.getBlobID(name);
+                String bId = b.getBlobID(name);
+                if (!Objects.equals(aId, bId)) {
+                    diffFile(name, aId, bId, null, out);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
     }
 
     /* Remote */
@@ -684,39 +1101,34 @@ public class Repository implements Serializable {
         CommitTree currentBranch = this.fetchCurrentBranch();
         Commit currentHead = this.fetchCommit(currentBranch.getLast());
         CommitTree remoteBranch = ORIGIN.fetchCommitTree(main);
-        Commit ancestor;
+        List<String> haves = new ArrayList<>();
+        CommitGraph g = graph();
+        int head = graphIndex(currentHead.getID());
+        int base;
         if (remoteBranch == null) {
             // if no such branch in remote, new a branch with given name
+            // and push the whole history after the initial commit
             remoteBranch = new CommitTree();
-            Commit temp = currentHead;
-            while (temp.getParent().equals("")) {
-                temp = fetchCommit(temp.getParent());
+            base = head;
+            while (g.getParent(base) >= 0) {
+                base = g.getParent(base);
             }
-            ancestor = temp;
         } else {
-            Commit remoteHead = ORIGIN.fetchCommit(remoteBranch.getLast());
-            ancestor = findLatestAncestor(currentHead, remoteHead, this, ORIGIN);
-            // head commit in remote must be a history commit in current working branch
-            if (!ancestor.getID().equals(remoteHead.getID())) {
+            // head commit in remote must be a history commit in current
+            // working branch, which is checked in the local commit graph
+            base = graphIndex(remoteBranch.getLast());
+            if (base < 0 || findLatestAncestor(head, base) != base) {
                 exitWithPrint("Please pull down remote changes before pushing.");
             }
+            haves.add(remoteBranch.getLast());
         }
-        CommitTree p = new CommitTree();
-        Commit c = currentHead;
-        while (!c.getID().equals(ancestor.getID())) {
-            ORIGIN.save(c);
-            BlobTree t = fetchBlobTree(c.getTree());
-            ORIGIN.saveBlobTree(t);
-            for (Map.Entry<String, String> l : t.getMapping().entrySet()) {
-                String address = l.getValue();
-                if (!address.equals("deleted")) {
-                    ORIGIN.save(fetchBlob(address));
-                }
-            }
-            c = fetchCommit(c.getParent());
-            p.add(c);
+        List<String> wanted = new ArrayList<>();
+        for (int i = head; i != base && g.getParent(i) >= 0; i = g.getParent(i)) {
+            wanted.add(g.getID(i));
         }
-        ORIGIN.saveBranch(p, main);
+        // send the objects the remote does not have in one pack
+        ORIGIN.objects().receive(missingObjects(wanted, haves, ORIGIN), objects());
+        ORIGIN.saveBranch(new CommitTree((Commit) fetch(g.getID(base))), main);
         // one more step, reset remote into same status as current head commit
         ORIGIN.reset(currentHead.getID());
     }
@@ -734,35 +1146,93 @@ public class Repository implements Serializable {
         if (remoteBranch == null) {
             exitWithPrint("That remote does not have that branch.");
         }
-        // download objects from remote repository to this repository
+        // download objects from remote repository to this repository,
+        // following the remote commit graph down to the initial commit
         Commit s = ORIGIN.fetchCommit(remoteBranch.getLast());
-        Commit e = s;
-        while (!e.getParent().equals("")) {
-            e = ORIGIN.fetchCommit(e.getParent());
-        }
+        CommitGraph g = ORIGIN.graph();
         join(REFS_DIR, origin).mkdir();
-        CommitTree p = new CommitTree();
-        Commit c = s;
-        while (!c.getID().equals(e.getID())) {
-            save(c);
-            BlobTree t = ORIGIN.fetchBlobTree(c.getTree());
-            saveBlobTree(t);
-            for (Map.Entry<String, String> l : t.getMapping().entrySet()) {
-                String address = l.getValue();
-                if (!address.equals("deleted")) {
-                    save(ORIGIN.fetchBlob(address));
-                }
-            }
-            c = ORIGIN.fetchCommit(c.getParent());
-            p.add(c);
+        List<String> wanted = new ArrayList<>();
+        for (int i = ORIGIN.graphIndex(s.getID()); g.getParent(i) >= 0; i = g.getParent(i)) {
+            wanted.add(g.getID(i));
         }
-        p.setLast(s);
-        saveBranch(p, origin + "/" + main);
+        // receive the objects this repository does not have in one pack,
+        // all objects of the last fetched head are here already
+        CommitTree fetched = fetchCommitTree(origin + "/" + main);
+        List<String> haves = fetched == null || fetched.getLast() == null
+                ? List.of() : List.of(fetched.getLast());
+        objects().receive(ORIGIN.missingObjects(wanted, haves, this), ORIGIN.objects());
+        saveBranch(new CommitTree(s), origin + "/" + main);
         return origin + "/" + main;
     }
 
+    /** Return the objects reachable from the wanted commits which the
+     *  other repository lacks: commits, tree roots, subtrees and blobs.
+     *  Objects reachable from commits the other side has are left out as
+     *  a difference of reachability bitmaps, then objects it has anyway.
+     *  Objects are only stored after all they reach, so walking stops at
+     *  any object the other side has.
+     *
+     * @param wants uids of commits wanted by the other repository
+     * @param haves uids of commits the other repository has
+     * @param other the repository receiving the objects
+     * @return uids of missing objects
+     */
+    private List<String> missingObjects(List<String> wants, List<String> haves,
+                                        Repository other) {
+        PackFile pack = objects().bitmapPack();
+        Predicate<String> known = id -> other.objects().contains(id);
+        ObjectWalk have = newWalk(pack);
+        if (pack != null) {
+            // without bitmaps this is a walk of the whole history
+            have.add(haves, id -> false);
+        }
+        ObjectWalk want = newWalk(pack);
+        want.add(wants, have, known);
+        List<String> missing = new ArrayList<>();
+        for (String id : want.getIDs()) {
+            if (!known.test(id)) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    /** Return an empty walk over the reachability bitmaps of PACK. */
+    private ObjectWalk newWalk(PackFile pack) {
+        BitmapIndex bitmaps = pack == null ? null : pack.getBitmaps();
+        return new ObjectWalk(pack, bitmaps == null ? id -> null : bitmaps::get,
+                this::fetch, this::chunkIDs);
+    }
+
+    /** Return the SHA-1 values of the chunks of a stored blob, empty if
+     *  it is not chunked or absent. */
+    private List<String> chunkIDs(String blob) {
+        InputStream stored = objects().open(blob);
+        if (stored == null) {
+            return List.of();
+        }
+        try (stored) {
+            return Blob.chunkIDs(stored);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store a blob tree, and its subtrees if it is large. Subtrees
+     *  already stored by other commits are not written again.
+     *
+     * @param tree the blob tree to store
+     */
     public void saveBlobTree(BlobTree tree) {
-        writeObject(join(OBJECT_DIR, tree.getID()), tree);
+        for (BlobTree subtree : tree.split()) {
+            if (!objects().contains(subtree.getID())) {
+                save(subtree);
+            }
+        }
+        tree.hash();
+        if (!objects().contains(tree.getID())) {
+            save(tree);
+        }
     }
 
     /** Fetches branch `[remote name]/[remote branch name]` as for the `fetch` command,
@@ -775,6 +1245,123 @@ public class Repository implements Serializable {
         merge(fetchRemote(origin, main));
     }
 
+    /* Maintenance */
+
+    /** Moves all loose objects into a pack, so that lookups no longer
+     *  pay one file per object. Blobs in the pack are stored as deltas
+     *  from similar blobs where it saves space.
+     *
+     * @param all if all existing packs are merged into the new pack
+     * @param window number of previous blobs tried as delta bases
+     * @param depth maximum length of a chain of deltas
+     */
+    public void repack(boolean all, int window, int depth) {
+        objects().repack(all, window, depth);
+        if (all) {
+            writeBitmaps();
+        }
+    }
+
+    /** Remove objects no branch, fetched remote branch or staged file
+     *  reaches, like commits reset away and blobs added again before a
+     *  commit, and move the rest into one pack. Commits removed no longer
+     *  show in global-log and find.
+     *
+     * @param dryRun if only the objects to remove are counted
+     */
+    public void gc(boolean dryRun) {
+        ObjectStore store = objects();
+        ObjectWalk live = newWalk(store.bitmapPack());
+        live.add(branchHeads(), id -> false);
+        live.addBlobs(fetchStage().getMapping().values());
+        List<String> survivors = new ArrayList<>();
+        TreeSet<String> dead = store.allIDs();
+        for (String id : live.getIDs()) {
+            if (dead.remove(id)) {
+                survivors.add(id);
+            }
+        }
+        if (dryRun) {
+            long bytes = 0;
+            for (String id : dead) {
+                bytes += store.storedSize(id);
+            }
+            System.out.printf("Would remove %d unreachable objects, about %d bytes.%n",
+                    dead.size(), bytes);
+            return;
+        }
+        long before = store.diskUsage();
+        store.retain(survivors, PackFile.DEFAULT_WINDOW, PackFile.DEFAULT_DEPTH);
+        // removed objects must not be served from memory
+        cache = null;
+        writeBitmaps();
+        System.out.printf("Removed %d unreachable objects, %d bytes reclaimed.%n",
+                dead.size(), Math.max(0, before - store.diskUsage()));
+    }
+
+    /** Store reachability bitmaps for the only pack, of the head of each
+     *  branch and of commits of every BITMAP_INTERVAL generations. Commits
+     *  are taken parents first, so each walk stops at the bitmaps of the
+     *  commits before it.
+     */
+    private void writeBitmaps() {
+        List<PackFile> packs = objects().packs();
+        if (packs.size() != 1) {
+            return;
+        }
+        PackFile pack = packs.get(0);
+        CommitGraph g = graph();
+        TreeSet<Integer> selected = new TreeSet<>();
+        for (String head : branchHeads()) {
+            int i = graphIndex(head);
+            if (i >= 0) {
+                selected.add(i);
+            }
+        }
+        for (int i = 0; i < g.size(); i += 1) {
+            if (g.getGeneration(i) % BITMAP_INTERVAL == 0) {
+                selected.add(i);
+            }
+        }
+        Map<String, Bitmap> bitmaps = new LinkedHashMap<>();
+        for (int i : selected) {
+            ObjectWalk walk = new ObjectWalk(pack, bitmaps::get, this::fetch, this::chunkIDs);
+            walk.add(List.of(g.getID(i)), id -> false);
+            // a commit reaching objects outside the pack gets no bitmap
+            if (walk.isComplete() && walk.getLoose().isEmpty()) {
+                bitmaps.put(g.getID(i), walk.getPacked());
+            }
+        }
+        pack.writeBitmaps(bitmaps);
+    }
+
+    /** Return the head commits of all branches, fetched remote branches
+     *  included. */
+    private List<String> branchHeads() {
+        List<String> heads = new ArrayList<>();
+        Deque<File> dirs = new ArrayDeque<>(List.of(REFS_DIR));
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    // the remotes folder holds locations, not branches
+                    if (!f.equals(REMOTE_DIR)) {
+                        dirs.push(f);
+                    }
+                } else {
+                    String head = readObject(f, CommitTree.class).getLast();
+                    if (head != null) {
+                        heads.add(head);
+                    }
+                }
+            }
+        }
+        return heads;
+    }
+
 
     /* ***************************************************************
      *******************    Internal Methods    **********************
@@ -785,7 +1372,56 @@ public class Repository implements Serializable {
 
     /* Activate the local repository. */
     public static Repository activate(File repoDir) {
-        return readObject(join(repoDir, "REPO"), Repository.class);
+        Repository repository = readObject(join(repoDir, "REPO"), Repository.class);
+        repository.checkFormat();
+        return repository;
+    }
+
+    /** Forget the state other gitlet processes may have changed since
+     *  the last command of a daemon: the staging area, the packs and a
+     *  grown commit graph. Cached objects never change and are kept.
+     */
+    void refresh() {
+        stagingArea = null;
+        objects = null;
+        messageIndex = null;
+        if (graph != null && graph.isStale()) {
+            graph = null;
+        }
+        checkFormat();
+    }
+
+    /** Check the format version of this repository, exits if it is
+     *  written by a newer gitlet. A legacy repository is upgraded in
+     *  place, since both plain and compressed objects are readable.
+     */
+    private void checkFormat() {
+        File format = join(GITLET_DIR, "format");
+        int version = 0;
+        if (format.exists()) {
+            version = Integer.parseInt(readContentsAsString(format).trim());
+        }
+        if (version > FORMAT_VERSION) {
+            exitWithPrint("Unsupported repository format version %d.".formatted(version));
+        } else if (version < FORMAT_VERSION) {
+            if (GLOBAL.exists()) {
+                migrateGlobal();
+            }
+            writeContents(format, FORMAT_VERSION + "\n");
+        }
+    }
+
+    /** Move the commits of the global file into the journal. An upgrade
+     *  interrupted before the global file is gone is redone from start.
+     */
+    private void migrateGlobal() {
+        Journal j = journal();
+        j.clear();
+        CommitTree global = readObject(GLOBAL, CommitTree.class);
+        for (Map.Entry<String, String> p : global.getMapping().entrySet()) {
+            j.append(p.getKey(), p.getValue());
+        }
+        GLOBAL.delete();
     }
 
     /* Store dumpable object in gitlet repository. */
@@ -793,6 +1429,42 @@ public class Repository implements Serializable {
         obj.store(OBJECT_DIR);
     }
 
+    /** Store the blob of a working file. A large file is split into
+     *  chunks, and only chunks not stored before are written, so a small
+     *  edit of a large file costs a few chunks. The file is read a chunk
+     *  at a time.
+     *
+     * @param filename name of the working file
+     * @param id SHA-1 value of the file content
+     */
+    private void saveBlob(String filename, String id) {
+        Blob b = new Blob(filename, id);
+        File f = join(CWD, filename);
+        if (f.length() < Chunker.THRESHOLD) {
+            save(b);
+            return;
+        }
+        List<String> chunks = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        // chunks seen in this file, the list keeps their order
+        Set<String> seen = new HashSet<>();
+        try (InputStream in = new FileInputStream(f)) {
+            Chunker chunker = new Chunker(in);
+            for (int n = chunker.next(); n > 0; n = chunker.next()) {
+                String chunk = Chunker.chunkID(chunker.getBuffer(), n);
+                if (seen.add(chunk) && !objects().contains(chunk)) {
+                    Chunker.store(OBJECT_DIR, chunk, chunker.getBuffer(), n);
+                }
+                chunks.add(chunk);
+                sizes.add(n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        b.setChunks(chunks, sizes);
+        save(b);
+    }
+
     /* Store a branch in .gitlet/refs. */
     public void saveBranch(CommitTree branch, String name) {
         writeObject(join(REFS_DIR, name), branch);
@@ -803,6 +1475,30 @@ public class Repository implements Serializable {
         writeContents(join(CWD, name), file.getBytes());
     }
 
+    /** Write a stored blob back to CWD, streamed from the object store
+     *  unless it is cached already. Blobs are not cached by checkout,
+     *  so large files do not evict the trees and commits.
+     *
+     * @param id uid of the blob
+     * @param name name of the working file
+     */
+    private void writeBlob(String id, String name) {
+        Dumpable cached = cache().get(id);
+        if (cached != null) {
+            write((Blob) cached, name);
+            return;
+        }
+        InputStream stored = objects().open(id);
+        if (stored == null) {
+            throw new IllegalArgumentException("missing blob " + id);
+        }
+        try (stored) {
+            Blob.writeContent(stored, join(CWD, name), objects()::open);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Set up persistence for a gitlet repository. */
     private void buildRepo() {
         // Initialize a new gitlet working directory
@@ -817,36 +1513,46 @@ public class Repository implements Serializable {
         REMOTE_DIR.mkdir();
         // Create object directory
         OBJECT_DIR.mkdir();
+        // Record the repository format
+        writeContents(join(GITLET_DIR, "format"), FORMAT_VERSION + "\n");
         // Create HEAD
         writeObject(HEAD, "refs/master");
         // Create the master branch
         writeObject(MASTER, new CommitTree());
         // Create the staging area
         writeObject(STAGE, new Stage());
-        // Create global commit collecting zone
-        writeObject(GLOBAL, new CommitTree());
         // Store this repository
         writeObject(REPO, this);
     }
 
 
-    /** Check if the filename points at an existed file in CWD,
-     *  return null if not existed.
-     *  NOTES: Unnecessary
+
+    /** Return the ID a working file is tracked by. A blob stored before
+     *  blob IDs hashed only the content has another ID for the same
+     *  content, so if the tracked blob is such a legacy blob holding the
+     *  content of the file, its ID is returned instead of the hash.
      *
-     * @param filename the file to check
-     * @param msg error message
-     * @return the name of the found file or null
+     * @param id SHA-1 value of the working file
+     * @param tracked ID of the blob tracked for the file, may be null
+     * @param f the working file
+     * @return TRACKED if it is a legacy blob of the same content, or ID
      */
-    private String checkFile(String filename, String msg) {
-        File filePath = join(CWD, filename);
-        // If the file does not exist, abort
-        if (!filePath.exists()) {
-            exitWithPrint(msg);
-        } else {
-            return filename;
+    private String trackedID(String id, String tracked, File f) {
+        if (tracked == null || tracked.equals(id) || tracked.equals("deleted")) {
+            return id;
         }
-        return null;
+        InputStream stored = objects().open(tracked);
+        if (stored == null) {
+            return id;
+        }
+        byte[] legacy;
+        try (stored) {
+            legacy = Blob.legacyContent(stored);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return legacy != null && legacy.length == f.length()
+                && Arrays.equals(legacy, readContents(f)) ? tracked : id;
     }
 
     /** Check if this branch is identical to current branch.
@@ -866,27 +1572,8 @@ public class Repository implements Serializable {
      * @return full-length uid or null
      */
     private String autoComplete(String shortId) {
-        List<String> fileList = Utils.plainFilenamesIn(OBJECT_DIR);
-        if (fileList == null) {
-            return null;
-        }
-        int cnt = 0;
-        if (fileList.contains(shortId)) {
-            // if it is not short
-            cnt = 1;
-        } else {
-            for (String full : fileList) {
-                if (full.startsWith(shortId)) {
-                    shortId = full;
-                    cnt += 1;
-                }
-            }
-        }
-        if (cnt != 1) {
-            // cannot narrow to one specific commit
-            return null;
-        }
-        return shortId;
+        // null if it cannot narrow to one specific object
+        return objects().resolve(shortId);
     }
 
     /** Fetch a dumpable object stored at OBJECT_DIR.
@@ -898,12 +1585,120 @@ public class Repository implements Serializable {
         if (filename == null || filename.equals("") || filename.equals("deleted"))  {
             return null;
         }
-        // filename not exist
+        Dumpable obj = cache().get(filename);
+        if (obj != null) {
+            return obj;
+        }
+        // a loose object is read directly from its own file
         File path = join(OBJECT_DIR, filename);
-        if (!path.exists()) {
-            return null;
+        if (path.exists()) {
+            obj = readObject(path, Dumpable.class);
+        } else {
+            // otherwise look it up in packs, null if not exist
+            byte[] packed = objects().read(filename);
+            if (packed == null) {
+                return null;
+            }
+            obj = deserialize(packed, Dumpable.class);
+        }
+        if (obj instanceof Blob && ((Blob) obj).isChunked()) {
+            ((Blob) obj).loadChunks(objects()::open);
+        }
+        cache().put(filename, obj);
+        return obj;
+    }
+
+    /** Return the object cache of this repository. */
+    ObjectCache cache() {
+        if (cache == null) {
+            cache = new ObjectCache(CACHE_CAPACITY);
+        }
+        return cache;
+    }
+
+    /** Fetch the staging area, read from the index only once. */
+    private Stage fetchStage() {
+        if (stagingArea == null) {
+            stagingArea = readObject(STAGE, Stage.class);
         }
-        return readObject(join(OBJECT_DIR, filename), Dumpable.class);
+        return stagingArea;
+    }
+
+    /** Write the staging area back to the index. */
+    private void saveStage(Stage stage) {
+        stagingArea = stage;
+        writeObject(STAGE, stage);
+    }
+
+    /** Return the journal of all commits of this repository. */
+    private Journal journal() {
+        if (journal == null) {
+            journal = new Journal(join(GITLET_DIR, "journal"), join(GITLET_DIR, "messages"));
+        }
+        return journal;
+    }
+
+    /** Return the message index of this repository, first indexing the
+     *  commits in the journal which are not indexed yet. */
+    private MessageIndex messageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex(join(GITLET_DIR, "message-index"));
+        }
+        long from = messageIndex.size();
+        if (from < journal().size()) {
+            long[] next = {from};
+            journal().forEach(from, Long.MAX_VALUE,
+                    (id, msg) -> messageIndex.add(next[0]++, msg));
+            messageIndex.save();
+        }
+        return messageIndex;
+    }
+
+    /** Return the commit graph of this repository. */
+    private CommitGraph graph() {
+        if (graph == null) {
+            graph = new CommitGraph(join(GITLET_DIR, "commit-graph"));
+        }
+        return graph;
+    }
+
+    /** Return the position of a commit in the commit graph. A commit
+     *  not in the graph yet, like one of a repository created before the
+     *  graph or one copied from a remote, is added with its ancestors.
+     *
+     * @param commitId full-length uid of a commit
+     * @return position of the commit, or -1 if no such commit
+     */
+    private int graphIndex(String commitId) {
+        CommitGraph g = graph();
+        Deque<Commit> pending = new ArrayDeque<>();
+        Commit c = g.find(commitId) >= 0 ? null : (Commit) fetch(commitId);
+        if (c != null) {
+            pending.push(c);
+        }
+        while (!pending.isEmpty()) {
+            c = pending.peek();
+            Commit parent = g.find(c.getParent()) >= 0 ? null : (Commit) fetch(c.getParent());
+            Commit relative = g.find(c.getRelative()) >= 0 ? null : (Commit) fetch(c.getRelative());
+            if (parent != null) {
+                pending.push(parent);
+            } else if (relative != null) {
+                pending.push(relative);
+            } else {
+                pending.pop();
+                g.add(c.getID(), g.find(c.getParent()), g.find(c.getRelative()),
+                        c.getTimeStamp().getTime());
+            }
+        }
+        return g.find(commitId);
+    }
+
+    /** Return the object store of this repository. */
+    private ObjectStore objects() {
+        if (objects == null) {
+            objects = new ObjectStore(OBJECT_DIR);
+        }
+        return objects;
     }
 
     /** Fetch the commit at HEAD.
@@ -912,8 +1707,7 @@ public class Repository implements Serializable {
      */
     private Commit fetchHead() {
         File branch = join(GITLET_DIR, readContentsAsString(HEAD));
-        File parentDir = join(OBJECT_DIR, readObject(branch, CommitTree.class).getLast());
-        return (Commit) new Commit().load(parentDir);
+        return (Commit) fetch(readObject(branch, CommitTree.class).getLast());
     }
 
     /** Fetch the current branch.
@@ -931,9 +1725,9 @@ public class Repository implements Serializable {
      */
     private BlobTree fetchTrackedTree(Commit head) {
         // The blob tree of the target commit
-        BlobTree workingTree = fetchBlobTree(head.getTree());
+        BlobTree workingTree = fetchBlobTree(head.getTree()).copy();
         // Merge the stage and the working tree of current commit
-        workingTree.merge(readObject(STAGE, Stage.class));
+        workingTree.merge(fetchStage());
         return workingTree;
     }
 
@@ -958,10 +1752,37 @@ public class Repository implements Serializable {
         BlobTree tree = (BlobTree) fetch(id);
         if (tree == null) {
             tree = new BlobTree();
+        } else if (tree.isUnexpanded()) {
+            // load files of a split tree once, the cache keeps them
+            for (String subtree : tree.getSubtrees().values()) {
+                tree.expand(fetchBlobTree(subtree));
+            }
+            cache().put(id, tree);
         }
         return tree;
     }
 
+    /** Return files of a blob tree that may differ from another one.
+     *  Subtrees with the same SHA-1 value in both trees are skipped
+     *  without looking at their files.
+     *
+     * @param tree the tree to take files from
+     * @param other the tree to compare with
+     * @return <filename, SHA-1 value> pairs of TREE outside shared subtrees
+     */
+    private Map<String, String> changedFiles(BlobTree tree, BlobTree other) {
+        if (tree.getSubtrees() == null || other.getSubtrees() == null) {
+            return tree.getMapping();
+        }
+        TreeMap<String, String> changed = new TreeMap<>();
+        for (Map.Entry<String, String> p : tree.getSubtrees().entrySet()) {
+            if (!p.getValue().equals(other.getSubtrees().get(p.getKey()))) {
+                changed.putAll(fetchBlobTree(p.getValue()).getMapping());
+            }
+        }
+        return changed;
+    }
+
     /** Fetch a branch with given name.
      *
      * @param branch name of a branch
@@ -991,14 +1812,12 @@ public class Repository implements Serializable {
     }
 
     /**
-     * Print MESSAGE and exits with error code 0
+     * Abort the running command with MESSAGE, which is printed by
+     * Main before it exits with error code 0
      *
      * @param msg message to print
      */
     public static void exitWithPrint(String msg) {
-        if (msg != null && !msg.equals("")) {
-            System.out.println(msg);
-        }
-        System.exit(0);
+        throw new GitletException(msg);
     }
 }
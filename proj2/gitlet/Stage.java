@@ -1,20 +1,114 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 public class Stage extends BlobTree {
+    /** Pinned so an existing index stays readable. */
+    private static final long serialVersionUID = -3102717365370547141L;
+    /** Files modified this close to the time they were hashed are not
+     *  cached, since a later write may keep the same coarse timestamp. */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
     /** Mapping blobs in <Key filename, Value SHA-1 value> pairs. */
     private TreeMap<String, String> mapping = new TreeMap<>();
     /** Record the deleted file before next commit in stage. */
     private TreeMap<String, String> deleted = new TreeMap<>();
     /** SHA-1 value for this blob tree. */
     private String id;
+    /** Cached stat and blob ID of working files by file name. */
+    private TreeMap<String, Stat> stats = new TreeMap<>();
+
+    /** The stat of a working file when its blob ID was computed. */
+    private static class Stat implements Serializable {
+        /** Pinned so stats written by earlier builds stay readable. */
+        private static final long serialVersionUID = -388704077542815064L;
+        /** Size of the file in bytes. */
+        private long size;
+        /** Last modified time in nanoseconds. */
+        private long mtime;
+        /** Inode or other key of the file, null if not supported. */
+        private String inode;
+        /** SHA-1 value of the file content. */
+        private String id;
+
+        /** Return the stat of a working file, or null if unreadable. */
+        static Stat of(File f) {
+            try {
+                BasicFileAttributes attr = Files.readAttributes(f.toPath(),
+                        BasicFileAttributes.class);
+                Stat st = new Stat();
+                st.size = attr.size();
+                st.mtime = attr.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                st.inode = attr.fileKey() == null ? null : attr.fileKey().toString();
+                return st;
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** Check if two stats describe the same unchanged file. */
+        boolean matches(Stat other) {
+            return other != null && this.size == other.size && this.mtime == other.mtime
+                    && (this.inode == null ? other.inode == null : this.inode.equals(other.inode));
+        }
+    }
 
     /** New an empty stage. */
     public Stage() { }
 
+    /** Return the cached blob ID of a working file, or null if the file
+     *  may have changed since it was hashed.
+     *
+     * @param filename name of the working file
+     * @param f the working file
+     */
+    public String cachedID(String filename, File f) {
+        Stat cached = this.stats == null ? null : this.stats.get(filename);
+        if (cached == null || !cached.matches(Stat.of(f))) {
+            return null;
+        }
+        return cached.id;
+    }
+
+    /** Cache the blob ID of a working file with its current stat.
+     *  A racily clean file, modified too close to now, is not cached.
+     *
+     * @param filename name of the working file
+     * @param f the working file
+     * @param blobId SHA-1 value of the file content
+     * @return true if the cache is changed
+     */
+    public boolean cache(String filename, File f, String blobId) {
+        if (this.stats == null) {
+            this.stats = new TreeMap<>();
+        }
+        Stat st = Stat.of(f);
+        if (st == null || st.mtime + RACY_WINDOW >= System.currentTimeMillis()
+                * TimeUnit.MILLISECONDS.toNanos(1)) {
+            return this.stats.remove(filename) != null;
+        }
+        st.id = blobId;
+        this.stats.put(filename, st);
+        return true;
+    }
+
+    /** Drop cached entries of files not in the given working files.
+     *
+     * @return true if the cache is changed
+     */
+    public boolean retainCached(Collection<String> workingFiles) {
+        return this.stats != null && this.stats.keySet().retainAll(workingFiles);
+    }
+
     /** Return the SHA-1 value of this commit tree. */
     public String getID() {
         return this.id;
@@ -34,7 +128,8 @@ public class Stage extends BlobTree {
     }
 
 
-    /** Empty this blob tree. */
+    /** Empty this blob tree.  Cached stats are kept since they only
+     *  describe working files. */
     public void empty() {
         this.mapping = new TreeMap<>();
         this.deleted = new TreeMap<>();
@@ -85,36 +180,36 @@ public class Stage extends BlobTree {
         return (!this.mapping.isEmpty() || !this.deleted.isEmpty());
     }
 
-    /** Compose a verbose and tree-structure version of log on this tree
+    /** Write a verbose and tree-structure version of log on this tree
      *
-     *  @return a string represent the content and structure on this tree
+     *  @param out the writer of the content and structure on this tree
      */
-    public String log() {
+    public void log(PrintWriter out) {
         // header of a tree object
-        String log = "tree ";
+        out.print("tree ");
         // add ID
-        log += this.id + "\n";
-        log += "staged:\n";
+        out.print(this.id + "\n");
+        out.print("staged:\n");
         if (this.mapping != null) {
             // add one line log for all dumpables in this tree
             for (Map.Entry<String, String> p : this.mapping.entrySet()) {
-                log += "*\t" + p.getValue() + "\t" + p.getKey() + "\n";
+                out.print("*\t" + p.getValue() + "\t" + p.getKey() + "\n");
             }
         }
-        log += "deleted:\n";
+        out.print("deleted:\n");
         if (this.deleted != null) {
             // add one line log for all dumpables in this tree
             for (Map.Entry<String, String> p : this.deleted.entrySet()) {
-                log += "*\t" + p.getValue() + "\t" + p.getKey() + "\n";
+                out.print("*\t" + p.getValue() + "\t" + p.getKey() + "\n");
             }
         }
-        return log;
     }
 
     /** Store this tree and generate its SHA-1 value. */
     public void store(File storePath) {
-        this.id = Utils.sha1(Utils.serialize(this));
-        Utils.writeObject(Utils.join(storePath, this.id), this);
+        this.id = null;
+        this.id = Utils.sha1(Codec.encode(this));
+        Utils.writeCompressedObject(Utils.join(storePath, this.id), this);
     }
 
     /** Load a tree object by its ID and return it for assignment.
@@ -130,4 +225,40 @@ public class Stage extends BlobTree {
     public void dump() {
         System.out.println(this.log());
     }
+
+    /** Write this stage and its cached stats in the binary format. */
+    public void encode(Codec.Output out) throws IOException {
+        out.writeByte(Codec.STAGE);
+        out.writeId(this.id);
+        encodeMapping(out, this.mapping);
+        encodeMapping(out, this.deleted);
+        Map<String, Stat> cached = this.stats == null ? new TreeMap<>() : this.stats;
+        out.writeVarint(cached.size());
+        for (Map.Entry<String, Stat> p : cached.entrySet()) {
+            Stat st = p.getValue();
+            out.writeString(p.getKey());
+            out.writeVarint(st.size);
+            out.writeVarint(st.mtime);
+            out.writeString(st.inode);
+            out.writeId(st.id);
+        }
+    }
+
+    /** Read a stage written by encode(). */
+    static Stage decode(Codec.Input in) throws IOException {
+        Stage s = new Stage();
+        s.id = in.readId();
+        decodeMapping(in, s.mapping);
+        decodeMapping(in, s.deleted);
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            String name = in.readString();
+            Stat st = new Stat();
+            st.size = in.readVarint();
+            st.mtime = in.readVarint();
+            st.inode = in.readString();
+            st.id = in.readId();
+            s.stats.put(name, st);
+        }
+        return s;
+    }
 }
@@ -1,13 +1,17 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -17,6 +21,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -57,12 +63,55 @@ class Utils {
         }
     }
 
+    /** The size of buffers used to stream file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Returns the SHA-1 hash of HEADER followed by the contents of FILE.
+     *  FILE is streamed through a fixed-size buffer, so the memory used
+     *  does not depend on its size.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static String sha1(String header, File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(header.getBytes(StandardCharsets.UTF_8));
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the hexadecimal numeral of the bytes in RAW. */
+    static String toHex(byte[] raw) {
+        StringBuilder result = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Returns the bytes of the hexadecimal numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return raw;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -137,24 +186,102 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may be written by either writeObject or writeCompressedObject.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        try (InputStream in = new FileInputStream(file)) {
+            return readObject(in, expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from IN, casting it to EXPECTEDCLASS.
+     *  IN may be compressed, and hold either a gitlet object in the binary
+     *  format of Codec or a java serialized object. */
+    private static <T extends Serializable> T readObject(InputStream in,
+                                                         Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+            InputStream plain = new BufferedInputStream(inflateIfCompressed(
+                new BufferedInputStream(in)));
+            if (Codec.isEncoded(plain)) {
+                return expectedClass.cast(Codec.read(plain));
+            }
+            ObjectInputStream objectStream = new ObjectInputStream(plain);
+            return expectedClass.cast(objectStream.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE.  Gitlet objects are written in the binary
+     *  format of Codec, others are java serialized. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        if (!(obj instanceof Dumpable)) {
+            writeContents(file, serialize(obj));
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            Codec.write(out, (Dumpable) obj);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write OBJ to FILE through a deflate stream, so that the
+     *  serialized bytes never have to be held in memory at once.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeCompressedObject(File file, Serializable obj) {
+        try (OutputStream out = new DeflaterOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            if (obj instanceof Dumpable) {
+                Codec.write(out, (Dumpable) obj);
+            } else {
+                ObjectOutputStream objectStream = new ObjectOutputStream(out);
+                objectStream.writeObject(obj);
+                objectStream.flush();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return IN itself if it holds plain bytes, or an inflating stream
+     *  over it if it starts with a zlib header.  IN must support mark. */
+    static InputStream inflateIfCompressed(InputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        // a zlib stream starts with the deflate method and a checksum of
+        // its first two bytes, a java serialization stream with 0xACED
+        if ((cmf & 0x0f) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    /** Return BYTES compressed in the zlib format of stored objects. */
+    static byte[] deflate(byte[] bytes) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        try (OutputStream out = new DeflaterOutputStream(stream)) {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return stream.toByteArray();
+    }
+
+    /** Return BYTES inflated if they start with a zlib header, otherwise
+     *  BYTES themselves. */
+    static byte[] inflate(byte[] bytes) {
+        try (InputStream in = inflateIfCompressed(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /* DIRECTORIES */
@@ -220,6 +347,13 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        return readObject(new ByteArrayInputStream(bytes), expectedClass);
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */